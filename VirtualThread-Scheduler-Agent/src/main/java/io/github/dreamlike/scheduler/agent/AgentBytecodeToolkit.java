@@ -2,12 +2,18 @@ package io.github.dreamlike.scheduler.agent;
 
 import java.lang.classfile.*;
 import java.lang.classfile.attribute.ExceptionsAttribute;
+import java.lang.classfile.instruction.BranchInstruction;
 import java.lang.classfile.instruction.InvokeInstruction;
+import java.lang.classfile.instruction.LabelTarget;
 import java.lang.classfile.instruction.LoadInstruction;
 import java.lang.constant.ClassDesc;
 import java.lang.constant.ConstantDescs;
 import java.lang.constant.MethodTypeDesc;
 import java.lang.reflect.AccessFlag;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Bytecode generation toolkit for the unified virtual-thread Runtime agent.
@@ -29,11 +35,18 @@ import java.lang.reflect.AccessFlag;
  *   <li>{@code transformVirtualThread} &mdash; rewrites {@code java.lang.VirtualThread}:
  *       replaces {@code loadCustomScheduler} body to return {@code Poller.pollerGroupForScheduler()}.</li>
  * </ol>
+ * With {@code jdk.virtualThreadScheduler.fileIo=true} it also generates {@code sun.nio.ch.VirtualThreadFileDispatcher}
+ * and rewrites {@code sun.nio.ch.FileChannelImpl} to use it, so file reads/writes of virtual threads reach
+ * {@code VirtualThreadPoller#fileIo} through {@code Poller.fileIo} and the proxy. With
+ * {@code jdk.virtualThreadScheduler.timeSlice.packages} it inserts {@code TimeSlice.poll()} yield points into
+ * the application classes of those packages.
  */
 final class AgentBytecodeToolkit {
 
     static final String JDK_POLLER_GROUP_ADAPTOR_CLASS_NAME = "io.github.dreamlike.scheduler.agent.JdkVirtualThreadPollerAdaptor";
     static final String CORE_POLLER_INTERFACE_NAME = "io.github.dreamlike.VirtualThreadPoller";
+    static final String TIME_SLICE_CLASS_NAME = "io.github.dreamlike.TimeSlice";
+    static final String FILE_DISPATCHER_CLASS_NAME = "sun.nio.ch.VirtualThreadFileDispatcher";
 
     /**
      * Proxy class name — resolved from {@code VirtualThreadSchedulerAgent}.
@@ -41,6 +54,18 @@ final class AgentBytecodeToolkit {
      */
     static final String PROXY_RUNTIME_CLASS_NAME = VirtualThreadSchedulerAgent.PROXY_RUNTIME_CLASS_NAME;
 
+    /**
+     * {@code int fileIo(int op, FileDescriptor fd, long address, int len, long position)} — shared by
+     * {@code Poller.fileIo}, the proxy and {@code VirtualThreadPoller#fileIo}.
+     */
+    static final MethodTypeDesc FILE_IO_DESC = MethodTypeDesc.ofDescriptor("(ILjava/io/FileDescriptor;JIJ)I");
+
+    // op 编号与 io.github.dreamlike.VirtualThreadPoller.FILE_* 保持一致
+    private static final int FILE_READ = 0;
+    private static final int FILE_PREAD = 1;
+    private static final int FILE_WRITE = 2;
+    private static final int FILE_PWRITE = 3;
+
     private AgentBytecodeToolkit() {
     }
 
@@ -102,6 +127,25 @@ final class AgentBytecodeToolkit {
                         code.areturn();
                     });
 
+            // --- Add new method: public static int fileIo(int, FileDescriptor, long, int, long) ---
+            // Called by VirtualThreadFileDispatcher on virtual threads, forwards to the proxy.
+            classBuilder.withMethod("fileIo", FILE_IO_DESC,
+                    AccessFlag.PUBLIC.mask() | AccessFlag.STATIC.mask(),
+                    mb -> {
+                        mb.with(ExceptionsAttribute.ofSymbols(ClassDesc.ofDescriptor("Ljava/io/IOException;")));
+                        mb.withCode(code -> {
+                            code.getstatic(pollerDesc, "POLLER_GROUP", pollerGroupDesc);
+                            code.checkcast(proxyDesc);
+                            code.iload(0); // op
+                            code.aload(1); // fd
+                            code.lload(2); // address
+                            code.iload(4); // len
+                            code.lload(5); // position
+                            code.invokevirtual(proxyDesc, "fileIo", FILE_IO_DESC);
+                            code.ireturn();
+                        });
+                    });
+
             // --- Generate new createPollerGroup() ---
             MethodTypeDesc createPollerGroupDesc = MethodTypeDesc.ofDescriptor("()Lsun/nio/ch/Poller$PollerGroup;");
             MethodTypeDesc proxyCtorDesc = MethodTypeDesc.ofDescriptor("(Lsun/nio/ch/Poller$PollerGroup;)V");
@@ -375,6 +419,7 @@ final class AgentBytecodeToolkit {
         ClassDesc exceptionDesc = ClassDesc.ofDescriptor("Ljava/lang/Exception;");
         ClassDesc ioExceptionDesc = ClassDesc.ofDescriptor("Ljava/io/IOException;");
         ClassDesc booleanSupplierDesc = ClassDesc.of("java.util.function.BooleanSupplier");
+        ClassDesc fileDescriptorDesc = ClassDesc.of("java.io.FileDescriptor");
         ClassDesc listDesc = ClassDesc.of("java.util.List");
         ClassDesc threadDesc = ClassDesc.ofDescriptor("Ljava/lang/Thread;");
         ClassDesc classDescType = ClassDesc.ofDescriptor("Ljava/lang/Class;");
@@ -397,6 +442,7 @@ final class AgentBytecodeToolkit {
         String mhStart = "_mhStart";
         String mhOnStart = "_mhOnStart";
         String mhOnContinue = "_mhOnContinue";
+        String mhFileIo = "_mhFileIo";
 
         return classFile.build(proxyDesc, cb -> {
             cb.withSuperclass(pollerGroupDesc);
@@ -417,7 +463,7 @@ final class AgentBytecodeToolkit {
 
             // ==================== Static final MH fields ====================
 
-            for (String f : new String[]{mhAdaptorCtor, mhCtor, mhPoll, mhPollSelector, mhStart, mhOnStart, mhOnContinue}) {
+            for (String f : new String[]{mhAdaptorCtor, mhCtor, mhPoll, mhPollSelector, mhStart, mhOnStart, mhOnContinue, mhFileIo}) {
                 cb.withField(f, methodHandleDesc,
                         fb -> fb.withFlags(AccessFlag.PUBLIC, AccessFlag.STATIC, AccessFlag.FINAL));
             }
@@ -559,6 +605,21 @@ final class AgentBytecodeToolkit {
                                 MethodTypeDesc.ofDescriptor("(Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/MethodHandle;"));
                         code.putstatic(proxyDesc, mhOnContinue, methodHandleDesc);
 
+                        // --- _mhFileIo: (Object, int, FileDescriptor, long, int, long) → int ---
+                        // VirtualThreadPoller#fileIo is a default method, so every runtime has it
+                        code.aload(2);
+                        code.aload(1);
+                        code.ldc("fileIo");
+                        emitMethodType(code, ConstantDescs.CD_int, ConstantDescs.CD_int, fileDescriptorDesc,
+                                ConstantDescs.CD_long, ConstantDescs.CD_int, ConstantDescs.CD_long);
+                        code.invokevirtual(lookupDesc, "findVirtual",
+                                MethodTypeDesc.ofDescriptor("(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/MethodHandle;"));
+                        emitMethodType(code, ConstantDescs.CD_int, objectDesc, ConstantDescs.CD_int, fileDescriptorDesc,
+                                ConstantDescs.CD_long, ConstantDescs.CD_int, ConstantDescs.CD_long);
+                        code.invokevirtual(methodHandleDesc, "asType",
+                                MethodTypeDesc.ofDescriptor("(Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/MethodHandle;"));
+                        code.putstatic(proxyDesc, mhFileIo, methodHandleDesc);
+
                         code.labelBinding(tryEnd);
                         code.branch(Opcode.GOTO, returnLabel);
 
@@ -677,6 +738,26 @@ final class AgentBytecodeToolkit {
                         code.return_();
                     });
 
+            // int fileIo(int op, FileDescriptor fd, long address, int len, long position)
+            cb.withMethod("fileIo", FILE_IO_DESC,
+                    AccessFlag.PUBLIC.mask(),
+                    mb -> {
+                        mb.with(ExceptionsAttribute.ofSymbols(ioExceptionDesc));
+                        mb.withCode(code -> {
+                            code.getstatic(proxyDesc, mhFileIo, methodHandleDesc);
+                            code.aload(0);
+                            code.getfield(proxyDesc, customerField, objectDesc);
+                            code.iload(1); // op
+                            code.aload(2); // fd
+                            code.lload(3); // address
+                            code.iload(5); // len
+                            code.lload(6); // position
+                            code.invokevirtual(methodHandleDesc, "invokeExact",
+                                    MethodTypeDesc.ofDescriptor("(Ljava/lang/Object;ILjava/io/FileDescriptor;JIJ)I"));
+                            code.ireturn();
+                        });
+                    });
+
             // ==================== Scheduling methods (MH → customerPoller) ====================
 
             // void onStart(Thread$VirtualThreadTask task)
@@ -794,6 +875,214 @@ final class AgentBytecodeToolkit {
         });
     }
 
+    // ==================== 5. File I/O routing (opt-in) ====================
+
+    /**
+     * Generates {@code sun.nio.ch.VirtualThreadFileDispatcher}, a {@code UnixFileDispatcherImpl} whose
+     * {@code read}, {@code pread}, {@code write} and {@code pwrite} are
+     * <pre>
+     * return Poller.fileIo(OP, fd, address, len, position);
+     * </pre>
+     * plus {@code static NativeDispatcher forCurrentThread(NativeDispatcher nd)} that returns the shared instance on
+     * virtual threads and {@code nd} otherwise. Only the {@code FileChannelImpl} call sites rewritten by
+     * {@link #transformFileChannel} use it: the JDK dispatcher class itself is left alone, because pipe channels
+     * share it and their close relies on signalling the thread that is blocked in the native call.
+     * Must be defined in {@code sun.nio.ch} by the boot loader.
+     */
+    public static byte[] virtualThreadFileDispatcher() {
+        ClassDesc selfDesc = ClassDesc.of(FILE_DISPATCHER_CLASS_NAME);
+        ClassDesc superDesc = ClassDesc.of("sun.nio.ch.UnixFileDispatcherImpl");
+        ClassDesc nativeDispatcherDesc = ClassDesc.of("sun.nio.ch.NativeDispatcher");
+        ClassDesc pollerDesc = ClassDesc.of("sun.nio.ch.Poller");
+        ClassDesc threadDesc = ClassDesc.ofDescriptor("Ljava/lang/Thread;");
+        ClassDesc ioExceptionDesc = ClassDesc.ofDescriptor("Ljava/io/IOException;");
+        MethodTypeDesc sequentialDesc = MethodTypeDesc.ofDescriptor("(Ljava/io/FileDescriptor;JI)I");
+        MethodTypeDesc positionalDesc = MethodTypeDesc.ofDescriptor("(Ljava/io/FileDescriptor;JIJ)I");
+        MethodTypeDesc forCurrentThreadDesc = MethodTypeDesc.of(nativeDispatcherDesc, nativeDispatcherDesc);
+        String instanceField = "INSTANCE";
+
+        return ClassFile.of().build(selfDesc, cb -> {
+            cb.withSuperclass(superDesc);
+            cb.withFlags(AccessFlag.FINAL, AccessFlag.SUPER);
+            cb.withField(instanceField, selfDesc,
+                    fb -> fb.withFlags(AccessFlag.PRIVATE, AccessFlag.STATIC, AccessFlag.FINAL));
+
+            cb.withMethodBody(ConstantDescs.CLASS_INIT_NAME, ConstantDescs.MTD_void, AccessFlag.STATIC.mask(),
+                    code -> {
+                        code.new_(selfDesc);
+                        code.dup();
+                        code.invokespecial(selfDesc, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void);
+                        code.putstatic(selfDesc, instanceField, selfDesc);
+                        code.return_();
+                    });
+
+            cb.withMethodBody(ConstantDescs.INIT_NAME, ConstantDescs.MTD_void, AccessFlag.PRIVATE.mask(),
+                    code -> {
+                        code.aload(0);
+                        code.invokespecial(superDesc, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void);
+                        code.return_();
+                    });
+
+            // static NativeDispatcher forCurrentThread(NativeDispatcher nd)
+            cb.withMethodBody("forCurrentThread", forCurrentThreadDesc,
+                    AccessFlag.PUBLIC.mask() | AccessFlag.STATIC.mask(),
+                    code -> {
+                        Label platform = code.newLabel();
+                        code.invokestatic(threadDesc, "currentThread", MethodTypeDesc.of(threadDesc));
+                        code.invokevirtual(threadDesc, "isVirtual", MethodTypeDesc.of(ConstantDescs.CD_boolean));
+                        code.ifeq(platform);
+                        code.getstatic(selfDesc, instanceField, selfDesc);
+                        code.areturn();
+                        code.labelBinding(platform);
+                        code.aload(0);
+                        code.areturn();
+                    });
+
+            // 与父类一样是包级可见的实例方法 只覆盖 IOUtil 单缓冲区读写会调用的四个
+            for (var entry : List.of(
+                    Map.entry("read", FILE_READ), Map.entry("pread", FILE_PREAD),
+                    Map.entry("write", FILE_WRITE), Map.entry("pwrite", FILE_PWRITE))) {
+                int op = entry.getValue();
+                boolean positional = op == FILE_PREAD || op == FILE_PWRITE;
+                cb.withMethod(entry.getKey(), positional ? positionalDesc : sequentialDesc, 0, mb -> {
+                    mb.with(ExceptionsAttribute.ofSymbols(ioExceptionDesc));
+                    mb.withCode(code -> {
+                        emitIntConst(code, op);
+                        code.aload(1); // fd
+                        code.lload(2); // address
+                        code.iload(4); // len
+                        if (positional) {
+                            code.lload(5); // position
+                        } else {
+                            code.ldc(-1L);
+                        }
+                        code.invokestatic(pollerDesc, "fileIo", FILE_IO_DESC);
+                        code.ireturn();
+                    });
+                });
+            }
+        });
+    }
+
+    /**
+     * Transforms {@code sun.nio.ch.FileChannelImpl}: in methods that hand a single buffer to
+     * {@code IOUtil.read}/{@code IOUtil.write}
+     * <ul>
+     *   <li>passes the dispatcher argument through {@code VirtualThreadFileDispatcher.forCurrentThread}, so
+     *       virtual threads end in {@code Poller.fileIo};</li>
+     *   <li>replaces {@code Blocker.begin(..)} with a constant "nothing to undo" result. The runtime now unmounts
+     *       the virtual thread for the native call, so the ForkJoinPool must not add a compensating carrier for
+     *       it; the matching {@code Blocker.end(..)} is a no-op for that value.</li>
+     * </ul>
+     * Vectored I/O, {@code force}, {@code transferTo} etc. keep the JDK's dispatcher and compensation.
+     * No schema changes — safe for retransformClasses.
+     */
+    public static byte[] transformFileChannel(byte[] channelBytecode) {
+        ClassFile classFile = ClassFile.of();
+        ClassModel channelModel = classFile.parse(channelBytecode);
+        ClassDesc blockerDesc = ClassDesc.of("jdk.internal.misc.Blocker");
+        ClassDesc dispatcherDesc = ClassDesc.of(FILE_DISPATCHER_CLASS_NAME);
+        ClassDesc nativeDispatcherDesc = ClassDesc.of("sun.nio.ch.NativeDispatcher");
+        MethodTypeDesc forCurrentThreadDesc = MethodTypeDesc.of(nativeDispatcherDesc, nativeDispatcherDesc);
+
+        return classFile.transformClass(channelModel, (classBuilder, element) -> {
+            if (element instanceof MethodModel methodModel && callsSingleBufferIo(methodModel)) {
+                classBuilder.transformMethod(methodModel, MethodTransform.transformingCode((code, codeElement) -> {
+                    if (isSingleBufferIo(codeElement)) {
+                        // 分派器是最后一个参数 正好在栈顶
+                        InvokeInstruction inv = (InvokeInstruction) codeElement;
+                        ClassDesc lastParam = inv.typeSymbol().parameterType(inv.typeSymbol().parameterCount() - 1);
+                        code.invokestatic(dispatcherDesc, "forCurrentThread", forCurrentThreadDesc);
+                        if (!nativeDispatcherDesc.equals(lastParam)) {
+                            code.checkcast(lastParam);
+                        }
+                        code.with(codeElement);
+                        return;
+                    }
+                    if (codeElement instanceof InvokeInstruction inv
+                            && inv.opcode() == Opcode.INVOKESTATIC
+                            && blockerDesc.equals(inv.owner().asSymbol())
+                            && "begin".equals(inv.name().stringValue())) {
+                        MethodTypeDesc type = inv.typeSymbol();
+                        // 丢弃参数 压入与返回类型对应的零值
+                        for (int i = type.parameterCount() - 1; i >= 0; i--) {
+                            if (TypeKind.from(type.parameterType(i)).slotSize() == 2) {
+                                code.pop2();
+                            } else {
+                                code.pop();
+                            }
+                        }
+                        switch (TypeKind.from(type.returnType())) {
+                            case LONG -> code.lconst_0();
+                            case VOID -> {
+                            }
+                            default -> code.iconst_0();
+                        }
+                        return;
+                    }
+                    code.with(codeElement);
+                }));
+                return;
+            }
+            classBuilder.with(element);
+        });
+    }
+
+    private static boolean callsSingleBufferIo(MethodModel methodModel) {
+        return methodModel.code()
+                .map(code -> code.elementStream().anyMatch(AgentBytecodeToolkit::isSingleBufferIo))
+                .orElse(false);
+    }
+
+    // IOUtil.read/write(FileDescriptor, ByteBuffer, ..., NativeDispatcher)
+    private static boolean isSingleBufferIo(CodeElement element) {
+        ClassDesc ioUtilDesc = ClassDesc.of("sun.nio.ch.IOUtil");
+        ClassDesc byteBufferDesc = ClassDesc.of("java.nio.ByteBuffer");
+        return element instanceof InvokeInstruction inv
+                && ioUtilDesc.equals(inv.owner().asSymbol())
+                && ("read".equals(inv.name().stringValue()) || "write".equals(inv.name().stringValue()))
+                && inv.typeSymbol().parameterCount() > 1
+                && byteBufferDesc.equals(inv.typeSymbol().parameterType(1));
+    }
+
+    // ==================== 6. Time-slice yield points (opt-in) ====================
+
+    /**
+     * Inserts {@code invokestatic io/github/dreamlike/TimeSlice.poll()V} at the entry of every method with code
+     * (except {@code <clinit>}) and before every backward branch, i.e. a branch to a label bound earlier in the
+     * method. The call touches neither locals nor the operand stack, so it is valid even before the
+     * {@code super()} call of a constructor. Stack maps are regenerated with {@code loader} resolving the
+     * class hierarchy.
+     */
+    public static byte[] insertTimeSliceChecks(byte[] classBytecode, ClassLoader loader) {
+        ClassFile classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+                ClassHierarchyResolver.ofResourceParsing(loader).orElse(ClassHierarchyResolver.defaultResolver())));
+        ClassModel classModel = classFile.parse(classBytecode);
+        ClassDesc timeSliceDesc = ClassDesc.of(TIME_SLICE_CLASS_NAME);
+        MethodTypeDesc pollDesc = MethodTypeDesc.of(ConstantDescs.CD_void);
+
+        return classFile.transformClass(classModel, ClassTransform.transformingMethodBodies(
+                method -> !ConstantDescs.CLASS_INIT_NAME.equals(method.methodName().stringValue()),
+                CodeTransform.ofStateful(() -> new CodeTransform() {
+                    private final Set<Label> bound = new HashSet<>();
+
+                    @Override
+                    public void atStart(CodeBuilder code) {
+                        code.invokestatic(timeSliceDesc, "poll", pollDesc);
+                    }
+
+                    @Override
+                    public void accept(CodeBuilder code, CodeElement element) {
+                        if (element instanceof LabelTarget target) {
+                            bound.add(target.label());
+                        } else if (element instanceof BranchInstruction branch && bound.contains(branch.target())) {
+                            code.invokestatic(timeSliceDesc, "poll", pollDesc);
+                        }
+                        code.with(element);
+                    }
+                })));
+    }
+
     // ==================== Utility ====================
 
     private static void emitIntConst(CodeBuilder cb, int value) {
@@ -16,11 +16,22 @@ public final class VirtualThreadSchedulerAgent {
 
     private static final String POLL_IMPL_CLASS = "jdk.virtualThreadScheduler.poller.implClass";
     private static final String DUMP_BYTECODE = "jdk.virtualThreadScheduler.poller.dumpBytecode";
+    private static final String ROUTER_CLASS = "io.github.dreamlike.VirtualThreadRuntimeRouter";
+    private static final String ROUTER_RUNTIMES = "jdk.virtualThreadScheduler.router.runtimes";
+    private static final String FILE_IO = "jdk.virtualThreadScheduler.fileIo";
+    private static final String TIME_SLICE_PACKAGES = "jdk.virtualThreadScheduler.timeSlice.packages";
+    // JDK 与 Core/agent 自身就是调度实现 插入 yield 点会递归或破坏它们
+    private static final List<String> TIME_SLICE_EXCLUDED = List.of("java/", "javax/", "jdk/", "sun/", "com/sun/",
+            "io/github/dreamlike/scheduler/agent/");
+    private static final String CORE_PACKAGE = "io/github/dreamlike/";
+    private static final String RUNTIME_PROPERTY_PREFIX = "jdk.virtualThreadScheduler.";
     private static final AtomicBoolean INSTALLED = new AtomicBoolean();
     static final String PROXY_RUNTIME_CLASS_NAME = "sun.nio.ch.JdkProxyVirtualThreadRuntime";
     private static final Map<String, String> args = new HashMap<>();
     private static String pollerImplClass = null;
     private static boolean dumpBytecode = false;
+    private static boolean routeFileIo = false;
+    private static List<String> timeSlicePackages = List.of();
 
     private VirtualThreadSchedulerAgent() {
     }
@@ -47,7 +58,9 @@ public final class VirtualThreadSchedulerAgent {
         ClassFileTransformer transformer = new RuntimeRewriteTransformer();
         System.out.println("[VirtualThreadSchedulerAgent] installing agent; retransform support = "
                 + instrumentation.isRetransformClassesSupported()
-                + "; dumpBytecode = " + dumpBytecode);
+                + "; dumpBytecode = " + dumpBytecode
+                + "; fileIo = " + routeFileIo
+                + "; timeSlice.packages = " + timeSlicePackages);
 
         try {
             // Open java.base packages to the agent module
@@ -90,6 +103,13 @@ public final class VirtualThreadSchedulerAgent {
             byte[] proxyBytes = AgentBytecodeToolkit.jdkProxyVirtualThreadRuntime(PROXY_RUNTIME_CLASS_NAME, pollerImplClass);
             dumpIfNeeded(PROXY_RUNTIME_CLASS_NAME, proxyBytes);
             pollerLookup.defineClass(proxyBytes);
+
+            // 5. File I/O routing: define the dispatcher FileChannelImpl will call, then rewrite FileChannelImpl.
+            //    It is usually loaded already (used during startup); the rewrite only changes method bodies,
+            //    so retransforming is safe. Done last so the rewritten code never runs before its target exists.
+            if (routeFileIo) {
+                retransformFileIoClasses(instrumentation, pollerLookup);
+            }
         } catch (Throwable t) {
             System.err.println("[VirtualThreadSchedulerAgent] failed to install agent");
             t.printStackTrace(System.err);
@@ -110,7 +130,46 @@ public final class VirtualThreadSchedulerAgent {
         if (pollerImplClass == null) {
             throw new NullPointerException(POLL_IMPL_CLASS + " is null");
         }
+        // a|b|c: 多个 runtime 共存 由 VirtualThreadRuntimeRouter 按虚拟线程选择
+        if (pollerImplClass.contains("|")) {
+            System.setProperty(ROUTER_RUNTIMES, pollerImplClass);
+            pollerImplClass = ROUTER_CLASS;
+        }
         dumpBytecode = parseBooleanArg(args.get(DUMP_BYTECODE), false);
+        routeFileIo = parseBooleanArg(args.get(FILE_IO), false);
+        // 多个包用 ; 分隔 逗号已被 agent 参数占用
+        timeSlicePackages = Stream.of(Objects.requireNonNullElse(args.get(TIME_SLICE_PACKAGES), "").split(";"))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(s -> s.replace('.', '/') + "/")
+                .toList();
+        exportRuntimeProperties();
+    }
+
+    private static void retransformFileIoClasses(Instrumentation instrumentation, MethodHandles.Lookup pollerLookup) throws Exception {
+        try {
+            Class.forName("sun.nio.ch.UnixFileDispatcherImpl", false, null);
+        } catch (ClassNotFoundException e) {
+            System.err.println("[VirtualThreadSchedulerAgent] " + FILE_IO + " is only supported on Unix, ignoring it");
+            routeFileIo = false;
+            return;
+        }
+        byte[] dispatcherBytes = AgentBytecodeToolkit.virtualThreadFileDispatcher();
+        dumpIfNeeded(AgentBytecodeToolkit.FILE_DISPATCHER_CLASS_NAME, dispatcherBytes);
+        pollerLookup.defineClass(dispatcherBytes);
+        instrumentation.retransformClasses(Class.forName("sun.nio.ch.FileChannelImpl", false, null));
+    }
+
+    // 其余 jdk.virtualThreadScheduler.* 参数(如 affinity.carriers)由 runtime 通过系统属性读取 命令行 -D 优先
+    private static void exportRuntimeProperties() {
+        args.forEach((key, value) -> {
+            if (key.startsWith(RUNTIME_PROPERTY_PREFIX)
+                    && !key.equals(POLL_IMPL_CLASS)
+                    && !key.equals(DUMP_BYTECODE)
+                    && System.getProperty(key) == null) {
+                System.setProperty(key, value);
+            }
+        });
     }
 
     private static boolean parseBooleanArg(String value, boolean defaultValue) {
@@ -139,6 +198,26 @@ public final class VirtualThreadSchedulerAgent {
         }
     }
 
+    private static boolean isTimeSliced(String className) {
+        if (timeSlicePackages.isEmpty()) {
+            return false;
+        }
+        for (String excluded : TIME_SLICE_EXCLUDED) {
+            if (className.startsWith(excluded)) {
+                return false;
+            }
+        }
+        if (className.startsWith(CORE_PACKAGE) && className.indexOf('/', CORE_PACKAGE.length()) < 0) {
+            return false;
+        }
+        for (String prefix : timeSlicePackages) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static final class RuntimeRewriteTransformer implements ClassFileTransformer {
         @Override
         public byte[] transform(Module module,
@@ -159,6 +238,23 @@ public final class VirtualThreadSchedulerAgent {
                 dumpIfNeeded("java.lang.VirtualThread_transformed", transformed);
                 return transformed;
             }
+            if (loader != null && isTimeSliced(className)) {
+                try {
+                    byte[] transformed = AgentBytecodeToolkit.insertTimeSliceChecks(classfileBuffer, loader);
+                    dumpIfNeeded(className.replace('/', '.') + "_timeSliced", transformed);
+                    return transformed;
+                } catch (Throwable t) {
+                    // transformer 抛出的异常会被 JVM 静默吞掉 这里打印后保留原始字节码
+                    System.err.println("[Transformer] failed to insert time-slice checks into " + className + ": " + t);
+                    return null;
+                }
+            }
+            if (routeFileIo && className.equals("sun/nio/ch/FileChannelImpl")) {
+                System.out.println("[Transformer] transforming sun.nio.ch.FileChannelImpl");
+                byte[] transformed = AgentBytecodeToolkit.transformFileChannel(classfileBuffer);
+                dumpIfNeeded("sun.nio.ch.FileChannelImpl_transformed", transformed);
+                return transformed;
+            }
             return null;
         }
     }
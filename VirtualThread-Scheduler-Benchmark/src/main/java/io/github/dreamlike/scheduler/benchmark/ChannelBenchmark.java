@@ -0,0 +1,129 @@
+package io.github.dreamlike.scheduler.benchmark;
+
+import io.github.dreamlike.VirtualThreadChannel;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+// 一个生产者虚拟线程向一个消费者虚拟线程传递 messages 个值
+// carrier=jdk 时两者在内建调度器上 carrier=eventLoop 时两者在同一个 EventLoopExecutor 上
+// 运行方式见 EventLoopLifoBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelBenchmark {
+
+    @Param({"jdk", "eventLoop"})
+    public String carrier;
+
+    @Param({"4096"})
+    public int messages;
+
+    private EventLoopExecutor eventLoop;
+
+    @Setup
+    public void setup() {
+        if (carrier.equals("eventLoop")) {
+            eventLoop = new EventLoopExecutor("Bench-EventLoop");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (eventLoop != null) {
+            eventLoop.close();
+        }
+    }
+
+    @Benchmark
+    public long arrayBlockingQueue() {
+        BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(128);
+        return run(queue::put, queue::take);
+    }
+
+    @Benchmark
+    public long synchronousQueue() {
+        SynchronousQueue<Integer> queue = new SynchronousQueue<>();
+        return run(queue::put, queue::take);
+    }
+
+    @Benchmark
+    public long boundedChannel() {
+        VirtualThreadChannel<Integer> channel = VirtualThreadChannel.bounded(128);
+        return run(channel::send, channel::receive);
+    }
+
+    @Benchmark
+    public long rendezvousChannel() {
+        VirtualThreadChannel<Integer> channel = VirtualThreadChannel.bounded(0);
+        return run(channel::send, channel::receive);
+    }
+
+    @Benchmark
+    public long unboundedChannel() {
+        VirtualThreadChannel<Integer> channel = VirtualThreadChannel.unbounded();
+        return run(channel::send, channel::receive);
+    }
+
+    private long run(Sender sender, Receiver receiver) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        Runnable pair = () -> {
+            Thread.startVirtualThread(() -> {
+                long sum = 0;
+                try {
+                    for (int i = 0; i < messages; i++) {
+                        sum += receiver.receive();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                result.complete(sum);
+            });
+            Thread.startVirtualThread(() -> {
+                try {
+                    for (int i = 0; i < messages; i++) {
+                        sender.send(i);
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        };
+        if (eventLoop == null) {
+            pair.run();
+        } else {
+            CustomerVirtualThreadRuntime.propagateExecutor(eventLoop, pair);
+        }
+        return result.join();
+    }
+
+    @FunctionalInterface
+    private interface Sender {
+        void send(Integer value) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    private interface Receiver {
+        Integer receive() throws InterruptedException;
+    }
+}
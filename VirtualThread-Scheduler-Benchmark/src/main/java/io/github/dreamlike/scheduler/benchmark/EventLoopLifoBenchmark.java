@@ -0,0 +1,126 @@
+package io.github.dreamlike.scheduler.benchmark;
+
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// LIFO 槽开 (lifoLimit=3) 与关 (lifoLimit=0) 的对比
+// 需要带着 agent 运行 JMH 的 fork 会继承宿主 JVM 的参数:
+// java -javaagent:VirtualThread-Scheduler-Agent/target/VirtualThread-Scheduler-Agent-1.0-SNAPSHOT.jar=jdk.virtualThreadScheduler.poller.implClass=io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime \
+//      -jar VirtualThread-Scheduler-Benchmark/target/benchmarks.jar EventLoopLifoBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventLoopLifoBenchmark {
+
+    @Param({"0", "3"})
+    public int lifoLimit;
+
+    @Param({"1024"})
+    public int messages;
+
+    @Param({"64"})
+    public int forks;
+
+    private EventLoopExecutor eventLoop;
+
+    @Setup
+    public void setup() {
+        eventLoop = new EventLoopExecutor("Bench-EventLoop", EventLoopExecutor.DEFAULT_RUN_BUDGET, Duration.ZERO, lifoLimit);
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventLoop.close();
+    }
+
+    /**
+     * 生产者与消费者通过容量为 1 的队列交替唤醒对方 再加上一组不相关的虚拟线程在同一事件循环上排队
+     */
+    @Benchmark
+    public long producerConsumer() {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        CustomerVirtualThreadRuntime.newThread(eventLoop, () -> {
+            BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(1);
+            Thread consumer = Thread.startVirtualThread(() -> {
+                long sum = 0;
+                try {
+                    for (int i = 0; i < messages; i++) {
+                        sum += queue.take();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                result.complete(sum);
+            });
+            // 背景任务 检验公平上限不会让它们饿死
+            for (int i = 0; i < 8; i++) {
+                Thread.startVirtualThread(Thread::yield);
+            }
+            try {
+                for (int i = 0; i < messages; i++) {
+                    queue.put(i);
+                }
+                consumer.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }).start();
+        return result.join();
+    }
+
+    /**
+     * 一个父虚拟线程在事件循环上启动 forks 个子虚拟线程 再逐个 join
+     */
+    @Benchmark
+    public long forkJoin() {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        CustomerVirtualThreadRuntime.newThread(eventLoop, () -> {
+            long[] partial = new long[forks];
+            Thread[] children = new Thread[forks];
+            for (int i = 0; i < forks; i++) {
+                int index = i;
+                children[i] = Thread.startVirtualThread(() -> partial[index] = work(index));
+            }
+            long sum = 0;
+            try {
+                for (int i = 0; i < forks; i++) {
+                    children[i].join();
+                    sum += partial[i];
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            result.complete(sum);
+        }).start();
+        return result.join();
+    }
+
+    private static long work(int seed) {
+        long x = seed;
+        for (int i = 0; i < 256; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x;
+    }
+}
@@ -1,9 +1,16 @@
 package io.github.dreamlike;
 
+import java.io.FileDescriptor;
+import java.io.IOException;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodType;
 import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 /**
  * Abstract base class for custom virtual thread runtime implementations.
@@ -13,7 +20,9 @@ import java.util.concurrent.ForkJoinPool;
  *   <li>{@link #jdkVirtualThreadPoller()} — reads {@code sun.nio.ch.Poller.jdkPoller}
  *       via VarHandle to get the original JDK PollerGroup wrapped as {@link VirtualThreadPoller}.</li>
  *   <li>{@link #jdkScheduler()} — calls {@code VirtualThread.builtinScheduler(false)}
- *       via MethodHandle to get the JDK builtin scheduler's external view.</li>
+ *       via MethodHandle (once) to get the JDK builtin scheduler's external view.</li>
+ *   <li>{@link #builtinScheduler()} — a {@link BuiltinScheduler} to tune the builtin ForkJoinPool at runtime
+ *       (parallelism, submit mode, statistics).</li>
  * </ul>
  * The VarHandle/MethodHandle are resolved in {@code static {}} (which only <em>loads</em>
  * the target classes without <em>initializing</em> them). Actual values are read/invoked
@@ -21,11 +30,37 @@ import java.util.concurrent.ForkJoinPool;
  * <p>
  * Users must implement {@link #poll}, {@link #pollSelector}, {@link #onStart}, and
  * {@link #onContinue}. The {@link #start()} method delegates to the JDK poller by default.
+ * <p>
+ * Implementations that override {@link #onStart} should call {@link #deferStart} first so that
+ * starts issued through {@link VirtualThreadAdmission#start} (e.g. by {@link VirtualThreadConcurrencyLimiter})
+ * can be held back before the virtual thread gets a stack.
+ * <p>
+ * {@link #start()} also applies the CPU affinity returned by {@link #carrierAffinity()} and
+ * {@link #pollerAffinity()} (by default read from {@value #CARRIER_AFFINITY} / {@value #POLLER_AFFINITY})
+ * and prints the effective masks, then starts the {@link CarrierWatchdog} returned by
+ * {@link #carrierWatchdog(ForkJoinPool)} and the {@link ElasticParallelismController} returned by
+ * {@link #elasticController(ForkJoinPool)} for the builtin scheduler, if any.
+ * <p>
+ * File reads/writes routed by the agent ({@link #fileIo}) run on the {@link BlockingFileIo} pool returned by
+ * {@link #blockingFileIo()}, so the calling virtual thread unmounts instead of pinning its carrier.
  */
 public abstract class AbstractVirtualThreadRuntime implements VirtualThreadRuntime {
 
     private static final VarHandle JDK_POLLER_VH;
     private static final MethodHandle BUILTIN_SCHEDULER_MH;
+    private static final Set<ForkJoinPool> WATCHED_POOLS = ConcurrentHashMap.newKeySet();
+    private static final Set<ForkJoinPool> ELASTIC_POOLS = ConcurrentHashMap.newKeySet();
+
+    public static final String CARRIER_AFFINITY = "jdk.virtualThreadScheduler.affinity.carriers";
+    public static final String POLLER_AFFINITY = "jdk.virtualThreadScheduler.affinity.pollers";
+
+    private volatile ForkJoinPool builtinForkJoinPool;
+    private volatile Thread.VirtualThreadScheduler jdkScheduler;
+    private volatile BuiltinScheduler builtinScheduler;
+    private volatile Thread.VirtualThreadScheduler defaultScheduler;
+    private volatile CarrierWatchdog watchdog;
+    private volatile ElasticParallelismController elasticController;
+    private volatile BlockingFileIo blockingFileIo;
 
     static {
         try {
@@ -63,37 +98,338 @@ public abstract class AbstractVirtualThreadRuntime implements VirtualThreadRunti
     /**
      * Returns the JDK builtin scheduler's external view.
      * <p>
-     * Calls {@code VirtualThread.builtinScheduler(false)} via MethodHandle.
+     * Calls {@code VirtualThread.builtinScheduler(false)} via MethodHandle on first use and caches it.
      * At runtime VirtualThread's clinit has completed before any virtual thread
      * is scheduled.
      */
     protected final Thread.VirtualThreadScheduler jdkScheduler() {
+        Thread.VirtualThreadScheduler scheduler = jdkScheduler;
+        if (scheduler == null) {
+            try {
+                scheduler = (Thread.VirtualThreadScheduler) BUILTIN_SCHEDULER_MH.invokeExact(false);
+            } catch (Throwable e) {
+                throw new RuntimeException("Failed to invoke builtinScheduler", e);
+            }
+            jdkScheduler = scheduler;
+        }
+        return scheduler;
+    }
+
+    /**
+     * Control handle for the builtin scheduler, or {@code null} if this JDK build does not back it with a
+     * {@link ForkJoinPool}.
+     */
+    public final BuiltinScheduler builtinScheduler() {
+        BuiltinScheduler scheduler = builtinScheduler;
+        if (scheduler == null) {
+            ForkJoinPool pool = builtinForkJoinPool();
+            if (pool == null) {
+                return null;
+            }
+            synchronized (this) {
+                scheduler = builtinScheduler;
+                if (scheduler == null) {
+                    scheduler = new BuiltinScheduler(pool, jdkScheduler());
+                    builtinScheduler = scheduler;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    /**
+     * Scheduler for virtual threads that the runtime does not route anywhere else.
+     * <p>
+     * {@link NumaAwareScheduler} when {@link NumaAwareScheduler#isEnabled()} (topology read once, on first
+     * use), otherwise {@link #builtinScheduler()}, or {@link #jdkScheduler()} if the builtin scheduler is
+     * not a ForkJoinPool.
+     */
+    protected Thread.VirtualThreadScheduler defaultScheduler() {
+        Thread.VirtualThreadScheduler scheduler = defaultScheduler;
+        if (scheduler == null) {
+            synchronized (this) {
+                scheduler = defaultScheduler;
+                if (scheduler == null) {
+                    scheduler = NumaAwareScheduler.isEnabled()
+                            ? new NumaAwareScheduler(NumaTopology.fromSystem())
+                            : builtinOrJdkScheduler();
+                    defaultScheduler = scheduler;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    private Thread.VirtualThreadScheduler builtinOrJdkScheduler() {
         try {
-            return (Thread.VirtualThreadScheduler) BUILTIN_SCHEDULER_MH.invokeExact(false);
-        } catch (Throwable e) {
-            throw new RuntimeException("Failed to invoke builtinScheduler", e);
+            BuiltinScheduler scheduler = builtinScheduler();
+            if (scheduler != null) {
+                return scheduler;
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[VirtualThreadRuntime] builtin scheduler control unavailable: " + e.getMessage());
         }
+        return jdkScheduler();
+    }
+
+    /**
+     * Returns the {@link ForkJoinPool} behind the JDK builtin scheduler, or {@code null} if this JDK build
+     * does not back it with one.
+     * <p>
+     * Calls {@code VirtualThread.builtinScheduler(true)} (the trusted scheduler, not the external view)
+     * once and unwraps the pool from it.
+     */
+    protected final ForkJoinPool builtinForkJoinPool() {
+        ForkJoinPool pool = builtinForkJoinPool;
+        if (pool == null) {
+            try {
+                pool = unwrapForkJoinPool((Thread.VirtualThreadScheduler) BUILTIN_SCHEDULER_MH.invokeExact(true));
+            } catch (Throwable e) {
+                throw new RuntimeException("Failed to resolve builtin ForkJoinPool", e);
+            }
+            builtinForkJoinPool = pool;
+        }
+        return pool;
+    }
+
+    private static ForkJoinPool unwrapForkJoinPool(Object scheduler) throws IllegalAccessException {
+        if (scheduler instanceof ForkJoinPool pool) {
+            return pool;
+        }
+        // builtin 调度器可能只是包装了一个 ForkJoinPool
+        for (Class<?> c = scheduler.getClass(); c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && ForkJoinPool.class.isAssignableFrom(field.getType())) {
+                    return (ForkJoinPool) LoomSecretHelper.LOOKUP.unreflectVarHandle(field).get(scheduler);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * CPU set for the builtin scheduler's carrier threads, or {@code null} to leave them unpinned.
+     */
+    protected CpuAffinity carrierAffinity() {
+        return CpuAffinity.fromProperty(CARRIER_AFFINITY);
+    }
+
+    /**
+     * CPU set for the JDK poller threads, or {@code null} to leave them unpinned.
+     */
+    protected CpuAffinity pollerAffinity() {
+        return CpuAffinity.fromProperty(POLLER_AFFINITY);
+    }
+
+    /**
+     * Watchdog for the builtin scheduler's carriers, or {@code null} for none. Configured from the
+     * {@value CarrierWatchdog#ENABLE_PROPERTY} properties by default.
+     */
+    protected CarrierWatchdog carrierWatchdog(ForkJoinPool builtinPool) {
+        return CarrierWatchdog.fromProperties(builtinPool);
+    }
+
+    /**
+     * The watchdog started by {@link #start()}, or {@code null}.
+     */
+    protected final CarrierWatchdog watchdog() {
+        return watchdog;
+    }
+
+    /**
+     * Controller that resizes the builtin scheduler's carriers, or {@code null} for none. Configured from the
+     * {@value ElasticParallelismController#ENABLE_PROPERTY} properties by default.
+     */
+    protected ElasticParallelismController elasticController(ForkJoinPool builtinPool) {
+        return ElasticParallelismController.fromProperties(builtinPool);
+    }
+
+    /**
+     * The controller started by {@link #start()}, or {@code null}. Runtimes may {@code manage} further pools
+     * they own with it.
+     */
+    protected final ElasticParallelismController elastic() {
+        return elasticController;
+    }
+
+    /**
+     * Pool that runs file I/O for virtual threads, created on first use from
+     * {@value BlockingFileIo#THREADS_PROPERTY}.
+     */
+    protected BlockingFileIo blockingFileIo() {
+        BlockingFileIo fileIo = blockingFileIo;
+        if (fileIo == null) {
+            synchronized (this) {
+                fileIo = blockingFileIo;
+                if (fileIo == null) {
+                    fileIo = BlockingFileIo.fromProperties();
+                    blockingFileIo = fileIo;
+                }
+            }
+        }
+        return fileIo;
+    }
+
+    @Override
+    public int fileIo(int op, FileDescriptor fd, long address, int len, long position) throws IOException {
+        if (!Thread.currentThread().isVirtual()) {
+            return BlockingFileIo.direct(op, fd, address, len, position);
+        }
+        return blockingFileIo().submit(op, fd, address, len, position);
+    }
+
+    /**
+     * Same as {@link VirtualThreadAdmission#start}, which callers that must also work without the agent should
+     * use: touching this class runs its agent-dependent static initialization.
+     */
+    public static void startWithAdmission(Thread thread, VirtualThreadAdmission admission) {
+        VirtualThreadAdmission.start(thread, admission);
+    }
+
+    /**
+     * Consults the admission bound by {@link VirtualThreadAdmission#start}, if any.
+     *
+     * @param resume how to submit the task later; it runs on whichever thread releases the admission,
+     *               so it must not depend on the starting thread's state
+     * @return {@code true} if the admission took ownership of the task and {@code onStart} must return
+     */
+    protected final boolean deferStart(Thread.VirtualThreadTask task, Consumer<Thread.VirtualThreadTask> resume) {
+        VirtualThreadAdmission admission = VirtualThreadAdmission.current();
+        return admission != null && admission.deferStart(task, this, resume);
     }
 
     @Override
     public final void start() {
+        start(true);
+    }
+
+    /**
+     * Everything {@link #start()} does except starting the JDK pollers, which exist once per JVM: carrier
+     * pinning, the watchdog, the elastic controller and {@link #start0()}. {@link VirtualThreadRuntimeRouter}
+     * calls it for every runtime but the primary one.
+     * <p>
+     * The builtin ForkJoinPool is shared by all runtimes, so only the first runtime to start gets a watchdog and
+     * an elastic controller for it.
+     */
+    public final void startWithoutPollers() {
+        start(false);
+    }
+
+    private void start(boolean startPollers) {
         // 为避免 VirtualThread/Poller 在 <clinit> 期间互相触发导致循环初始化/Already started，把 jdk poller 的 start 异步延后执行，等待类初始化锁释放后再启动。
         // Avoids VirtualThread↔Poller circular initialization during <clinit> (can cause re-entrance/Already started) by deferring JDK poller start asynchronously until class init completes.
-        new Thread(() -> jdkVirtualThreadPoller().start()).start();
+        CpuAffinity pollerAffinity = null;
+        CpuAffinity carrierAffinity = null;
+        try {
+            pollerAffinity = pollerAffinity();
+            carrierAffinity = carrierAffinity();
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException 或空集合 配置错误不应让 runtime 启动失败
+            System.err.println("[VirtualThreadRuntime] invalid cpu affinity, ignoring it: " + e.getMessage());
+            pollerAffinity = null;
+            carrierAffinity = null;
+        }
+        boolean pinning = pollerAffinity != null || carrierAffinity != null;
+        if (pinning && !CpuAffinity.isSupported()) {
+            System.err.println("[VirtualThreadRuntime] cpu affinity is only supported on Linux, ignoring it");
+            pinning = false;
+        }
+        boolean applyAffinity = pinning;
+        CpuAffinity pollerMask = pollerAffinity;
+        CpuAffinity carrierMask = carrierAffinity;
+        new Thread(() -> {
+            if (startPollers) {
+                if (applyAffinity && pollerMask != null) {
+                    // poller 线程由当前线程创建 会继承当前线程的亲和性掩码
+                    pollerMask.applyToCurrentThread("poller-starter");
+                }
+                jdkVirtualThreadPoller().start();
+            }
+            if (applyAffinity) {
+                if (carrierMask != null) {
+                    pinCarriers(carrierMask);
+                }
+                printAffinityReport();
+            }
+            startWatchdog();
+            startElasticController();
+        }).start();
         start0();
     }
 
+    /**
+     * Hands {@code affinity} to the builtin scheduler, whose carriers then pin themselves before their first
+     * mount (see {@link BuiltinScheduler#pinCarriers}), including carriers the pool spawns later.
+     */
+    private void pinCarriers(CpuAffinity affinity) {
+        BuiltinScheduler scheduler;
+        try {
+            scheduler = builtinScheduler();
+        } catch (RuntimeException e) {
+            scheduler = null;
+        }
+        if (scheduler == null) {
+            System.err.println("[VirtualThreadRuntime] builtin scheduler is not a ForkJoinPool, carriers are not pinned");
+            return;
+        }
+        scheduler.pinCarriers(affinity);
+    }
+
+    private void startWatchdog() {
+        ForkJoinPool pool;
+        try {
+            pool = builtinForkJoinPool();
+        } catch (RuntimeException e) {
+            System.err.println("[VirtualThreadRuntime] watchdog disabled: " + e.getMessage());
+            return;
+        }
+        // 多个 runtime 共用内建的 ForkJoinPool 只有第一个启动的 runtime 为它创建 watchdog
+        CarrierWatchdog carrierWatchdog = pool == null || !WATCHED_POOLS.add(pool) ? null : carrierWatchdog(pool);
+        if (carrierWatchdog != null) {
+            carrierWatchdog.start();
+            watchdog = carrierWatchdog;
+        }
+    }
+
+    private void startElasticController() {
+        ForkJoinPool pool;
+        try {
+            pool = builtinForkJoinPool();
+        } catch (RuntimeException e) {
+            System.err.println("[VirtualThreadRuntime] elastic parallelism disabled: " + e.getMessage());
+            return;
+        }
+        ElasticParallelismController controller = pool == null || !ELASTIC_POOLS.add(pool) ? null : elasticController(pool);
+        if (controller != null) {
+            CarrierWatchdog carrierWatchdog = watchdog;
+            if (carrierWatchdog != null) {
+                controller.coordinate(carrierWatchdog);
+            }
+            controller.start();
+            elasticController = controller;
+        }
+    }
+
+    private static void printAffinityReport() {
+        for (CpuAffinity.Entry entry : CpuAffinity.report()) {
+            System.out.println("[VirtualThreadRuntime] affinity " + entry);
+        }
+    }
+
     protected void start0() {
 
     }
 
     @Override
     public void onStart(Thread.VirtualThreadTask task) {
-        jdkScheduler().onStart(task);
+        if (deferStart(task, deferred -> defaultScheduler().onStart(deferred))) {
+            return;
+        }
+        defaultScheduler().onStart(task);
     }
 
     @Override
     public void onContinue(Thread.VirtualThreadTask task) {
-        jdkScheduler().onContinue(task);
+        defaultScheduler().onContinue(task);
     }
 }
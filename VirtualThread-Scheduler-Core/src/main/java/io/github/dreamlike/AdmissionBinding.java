@@ -0,0 +1,11 @@
+package io.github.dreamlike;
+
+// 与 agent 无关的绑定 不能放在 AbstractVirtualThreadRuntime 上 它的静态初始化依赖 agent 改写过的 Poller
+// 未安装 agent 时限流器仍要能加载并退化为在虚拟线程内部等待
+final class AdmissionBinding {
+
+    static final ScopedValue<VirtualThreadAdmission> CURRENT = ScopedValue.newInstance();
+
+    private AdmissionBinding() {
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.dreamlike;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the file reads/writes that the agent routes through {@link VirtualThreadPoller#fileIo} on a dedicated
+ * pool of platform threads, so a virtual thread doing file I/O unmounts instead of pinning its carrier (or
+ * making the {@link java.util.concurrent.ForkJoinPool} compensate for it).
+ * <p>
+ * The native call itself is {@code sun.nio.ch.UnixFileDispatcherImpl.read0/pread0/write0/pwrite0}, the same
+ * one the JDK would have made. The caller waits for it uninterruptibly: {@code address} points into memory
+ * owned by the caller (the buffer or a temporary direct buffer), so it must not return while the pool thread
+ * may still use it. Interrupting the virtual thread still closes the channel as usual, which is what makes a
+ * pending operation fail.
+ * <p>
+ * A read on a FIFO or a terminal opened as a {@code FileChannel} can block indefinitely and occupies one pool
+ * thread meanwhile; the pool size ({@value #THREADS_PROPERTY}) bounds how many such operations run at once.
+ */
+public final class BlockingFileIo implements AutoCloseable {
+
+    public static final String THREADS_PROPERTY = "jdk.virtualThreadScheduler.fileIo.threads";
+
+    private static final MethodHandle[] NATIVE_OPS = new MethodHandle[4];
+
+    static {
+        try {
+            var lookup = LoomSecretHelper.LOOKUP;
+            Class<?> dispatcher = Class.forName("sun.nio.ch.UnixFileDispatcherImpl", false, null);
+            MethodType sequential = MethodType.methodType(int.class, FileDescriptor.class, long.class, int.class);
+            MethodType positional = sequential.appendParameterTypes(long.class);
+            NATIVE_OPS[VirtualThreadPoller.FILE_READ] = lookup.findStatic(dispatcher, "read0", sequential);
+            NATIVE_OPS[VirtualThreadPoller.FILE_PREAD] = lookup.findStatic(dispatcher, "pread0", positional);
+            NATIVE_OPS[VirtualThreadPoller.FILE_WRITE] = lookup.findStatic(dispatcher, "write0", sequential);
+            NATIVE_OPS[VirtualThreadPoller.FILE_PWRITE] = lookup.findStatic(dispatcher, "pwrite0", positional);
+        } catch (ReflectiveOperationException e) {
+            // 非 Unix 平台 agent 不会改写文件分发路径 这里也就不会被调用
+            System.err.println("[VirtualThreadRuntime] file I/O dispatch is unavailable: " + e);
+        }
+    }
+
+    private final ExecutorService executor;
+
+    public BlockingFileIo(int threads) {
+        AtomicInteger index = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> Thread.ofPlatform()
+                .daemon()
+                .name("VirtualThreadRuntime-FileIo-" + index.getAndIncrement())
+                .unstarted(r));
+    }
+
+    /**
+     * Pool sized from {@value #THREADS_PROPERTY}, by default {@code max(4, availableProcessors)}.
+     */
+    public static BlockingFileIo fromProperties() {
+        return new BlockingFileIo(Integer.getInteger(THREADS_PROPERTY,
+                Math.max(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * Performs the operation on the calling thread, exactly as the JDK would.
+     *
+     * @param position the file position for {@code FILE_PREAD}/{@code FILE_PWRITE}, ignored otherwise
+     * @return the native result: bytes transferred or one of the negative {@code sun.nio.ch.IOStatus} codes
+     */
+    public static int direct(int op, FileDescriptor fd, long address, int len, long position) throws IOException {
+        MethodHandle handle = NATIVE_OPS[op];
+        if (handle == null) {
+            throw new UnsupportedOperationException("file I/O op " + op + " is unavailable");
+        }
+        try {
+            return switch (op) {
+                case VirtualThreadPoller.FILE_PREAD, VirtualThreadPoller.FILE_PWRITE ->
+                        (int) handle.invokeExact(fd, address, len, position);
+                default -> (int) handle.invokeExact(fd, address, len);
+            };
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Performs the operation on a pool thread and parks the caller until it completes.
+     */
+    public int submit(int op, FileDescriptor fd, long address, int len, long position) throws IOException {
+        Objects.requireNonNull(fd, "fd");
+        CompletableFuture<Integer> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return direct(op, fd, address, len, position);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
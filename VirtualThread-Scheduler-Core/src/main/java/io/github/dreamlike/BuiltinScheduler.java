@@ -0,0 +1,174 @@
+package io.github.dreamlike;
+
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Control handle for the JDK builtin scheduler: its {@link ForkJoinPool} plus the external view.
+ * <p>
+ * Used as a {@link Thread.VirtualThreadScheduler} by {@link AbstractVirtualThreadRuntime#defaultScheduler()}
+ * so that the {@link SubmitMode} applies to every virtual thread the runtime does not route elsewhere. In
+ * {@link SubmitMode#DEFAULT} (the default, see {@value #SUBMIT_MODE_PROPERTY}) it simply forwards to the
+ * external view, except when something has to run on the carrier before each mount — {@link TimeSlice} is
+ * enabled or carriers are pinned with {@link #pinCarriers} — then every submission goes through the pool.
+ * <p>
+ * All methods are safe to call at any time from any thread.
+ */
+public final class BuiltinScheduler implements Thread.VirtualThreadScheduler {
+
+    public static final String SUBMIT_MODE_PROPERTY = "jdk.virtualThreadScheduler.builtin.submitMode";
+
+    /**
+     * How {@code onContinue} hands a virtual thread to the pool when called on one of its carriers.
+     * Calls from any other thread always go through {@link ForkJoinPool#execute}.
+     */
+    public enum SubmitMode {
+        /**
+         * Forward to the JDK external view.
+         */
+        DEFAULT,
+        /**
+         * {@link ForkJoinPool#lazySubmit}: push to the carrier's local queue without waking an idle carrier.
+         * Cheapest when the caller is about to park and its carrier will pick the task up next.
+         */
+        LAZY,
+        /**
+         * {@link ForkJoinPool#execute}: push and signal an idle carrier, favouring latency over wakeups.
+         */
+        SIGNAL
+    }
+
+    // carrier 自己已经应用过的掩码 任务在 carrier 上挂载之前运行 所以这是 carrier 的 ThreadLocal
+    private static final ThreadLocal<CpuAffinity> PINNED = new ThreadLocal<>();
+
+    private final ForkJoinPool pool;
+    private final Thread.VirtualThreadScheduler externalView;
+    private volatile SubmitMode submitMode;
+    private volatile CpuAffinity carrierAffinity;
+
+    public BuiltinScheduler(ForkJoinPool pool, Thread.VirtualThreadScheduler externalView) {
+        this.pool = Objects.requireNonNull(pool, "pool");
+        this.externalView = Objects.requireNonNull(externalView, "externalView");
+        String mode = System.getProperty(SUBMIT_MODE_PROPERTY);
+        this.submitMode = mode == null ? SubmitMode.DEFAULT : SubmitMode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public ForkJoinPool pool() {
+        return pool;
+    }
+
+    public Thread.VirtualThreadScheduler externalView() {
+        return externalView;
+    }
+
+    public int parallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Changes the number of carriers at runtime.
+     *
+     * @return the previous parallelism
+     * @throws IllegalArgumentException if {@code parallelism} is not positive or exceeds the pool's maximum size
+     */
+    public int setParallelism(int parallelism) {
+        return pool.setParallelism(parallelism);
+    }
+
+    public SubmitMode submitMode() {
+        return submitMode;
+    }
+
+    public void setSubmitMode(SubmitMode submitMode) {
+        this.submitMode = Objects.requireNonNull(submitMode, "submitMode");
+    }
+
+    /**
+     * Pins every carrier to {@code affinity}. Affinity can only be set by the thread itself and the JDK creates
+     * the carriers, so each carrier pins itself lazily, before the first virtual thread it mounts. That also
+     * covers carriers spawned later — by compensation, or signalled by a poller thread whose mask they would
+     * otherwise inherit.
+     */
+    public void pinCarriers(CpuAffinity affinity) {
+        this.carrierAffinity = Objects.requireNonNull(affinity, "affinity");
+    }
+
+    public Stats stats() {
+        return new Stats(pool.getParallelism(), pool.getPoolSize(), pool.getActiveThreadCount(),
+                pool.getRunningThreadCount(), pool.getQueuedSubmissionCount(), pool.getQueuedTaskCount(),
+                pool.getStealCount());
+    }
+
+    @Override
+    public void onStart(Thread.VirtualThreadTask task) {
+        if (submitMode == SubmitMode.DEFAULT && !hasMountHook()) {
+            externalView.onStart(task);
+        } else {
+            pool.execute(withMountHook(task));
+        }
+    }
+
+    @Override
+    public void onContinue(Thread.VirtualThreadTask task) {
+        SubmitMode mode = submitMode;
+        if (mode == SubmitMode.DEFAULT && !hasMountHook()) {
+            externalView.onContinue(task);
+        } else if (mode == SubmitMode.LAZY && isCarrier()) {
+            // lazySubmit 只接受 ForkJoinTask
+            pool.lazySubmit(ForkJoinTask.adapt(withMountHook(task)));
+        } else {
+            pool.execute(withMountHook(task));
+        }
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return externalView.schedule(task, delay, unit);
+    }
+
+    private boolean hasMountHook() {
+        return TimeSlice.isEnabled() || carrierAffinity != null;
+    }
+
+    private Runnable withMountHook(Thread.VirtualThreadTask task) {
+        CpuAffinity affinity = carrierAffinity;
+        if (affinity == null) {
+            return TimeSlice.withMountHook(task);
+        }
+        return () -> {
+            if (PINNED.get() != affinity) {
+                pinCurrentCarrier(affinity);
+            }
+            TimeSlice.mounting(task);
+            task.run();
+        };
+    }
+
+    private static void pinCurrentCarrier(CpuAffinity affinity) {
+        // 失败也记下 不在每次挂载时重试
+        PINNED.set(affinity);
+        try {
+            affinity.applyToCurrentThread("carrier");
+        } catch (RuntimeException e) {
+            System.err.println("[BuiltinScheduler] failed to pin " + Thread.currentThread().getName() + " to " + affinity + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isCarrier() {
+        Thread current = Thread.currentThread();
+        Thread carrier = current.isVirtual() ? LoomSecretHelper.getCurrentCarrierThread() : current;
+        return carrier instanceof ForkJoinWorkerThread worker && worker.getPool() == pool;
+    }
+
+    /**
+     * Point-in-time counters of the pool; {@code stealCount} is cumulative.
+     */
+    public record Stats(int parallelism, int poolSize, int activeThreads, int runningThreads,
+                        int queuedSubmissions, long queuedTasks, long stealCount) {
+    }
+}
@@ -0,0 +1,188 @@
+package io.github.dreamlike;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Direct {@link ByteBuffer} pool with per-carrier magazines, in the style of a magazine/depot slab allocator.
+ * <p>
+ * Sizes are rounded up to power-of-two classes between {@code minSize} and {@code maxSize}; larger requests are
+ * allocated directly and not pooled. Each carrier keeps, per class, a <em>loaded</em> and a <em>previous</em>
+ * magazine of up to {@code magazineSize} buffers in a {@link CarrierLocal}, so the common acquire/release path
+ * touches only carrier-private state. When both are empty (acquire) or full (release) a whole magazine is
+ * exchanged with the global depot, which is how buffers released on one carrier reach the others. Once the
+ * depot holds {@code maxDepotMagazines} magazines of a class, further surplus buffers are dropped and left
+ * to the GC.
+ * <p>
+ * A buffer is returned to the magazines of whichever carrier runs {@link #release} — it does not need to be
+ * the carrier that acquired it.
+ */
+public final class CarrierByteBufferPool {
+
+    private final int minShift;
+    private final int classCount;
+    private final int magazineSize;
+    private final int maxDepotMagazines;
+    private final CarrierLocal<Magazine[][]> magazines;
+    private final Depot[] depots;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CarrierByteBufferPool() {
+        this(512, 64 * 1024, 32, 64);
+    }
+
+    public CarrierByteBufferPool(int minSize, int maxSize, int magazineSize, int maxDepotMagazines) {
+        if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxSize) != 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("sizes must be powers of two with minSize <= maxSize");
+        }
+        if (magazineSize <= 0 || maxDepotMagazines < 0) {
+            throw new IllegalArgumentException("magazineSize must be positive and maxDepotMagazines non-negative");
+        }
+        this.minShift = Integer.numberOfTrailingZeros(minSize);
+        this.classCount = Integer.numberOfTrailingZeros(maxSize) - minShift + 1;
+        this.magazineSize = magazineSize;
+        this.maxDepotMagazines = maxDepotMagazines;
+        this.depots = new Depot[classCount];
+        for (int i = 0; i < classCount; i++) {
+            depots[i] = new Depot();
+        }
+        this.magazines = CarrierLocal.withInitial(() -> {
+            Magazine[][] perClass = new Magazine[classCount][];
+            for (int i = 0; i < classCount; i++) {
+                perClass[i] = new Magazine[]{new Magazine(magazineSize), new Magazine(magazineSize)};
+            }
+            return perClass;
+        });
+    }
+
+    /**
+     * Returns a cleared direct buffer with {@code limit == size}; its capacity is the size class.
+     */
+    public ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) {
+            misses.increment();
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer buffer = magazines.apply(perClass -> pop(perClass[sizeClass], depots[sizeClass]));
+        if (buffer == null) {
+            misses.increment();
+            // 在 pin 之外分配 避免分配触发 GC 时长时间占住 carrier
+            buffer = ByteBuffer.allocateDirect(classSize(sizeClass));
+        } else {
+            hits.increment();
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Gives {@code buffer} back to the current carrier's magazines. Buffers that were not pooled (larger than
+     * {@code maxSize} or not of a class size) are ignored. The caller must not use the buffer afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("not a direct buffer");
+        }
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < 0 || classSize(sizeClass) != buffer.capacity()) {
+            return;
+        }
+        magazines.accept(perClass -> push(perClass[sizeClass], depots[sizeClass], buffer));
+    }
+
+    public Stats stats() {
+        int depotMagazines = 0;
+        for (Depot depot : depots) {
+            depotMagazines += depot.size.get();
+        }
+        return new Stats(hits.sum(), misses.sum(), depotMagazines);
+    }
+
+    private ByteBuffer pop(Magazine[] pair, Depot depot) {
+        Magazine loaded = pair[0];
+        if (loaded.count == 0) {
+            if (pair[1].count > 0) {
+                pair[0] = pair[1];
+                pair[1] = loaded;
+            } else {
+                Magazine full = depot.poll();
+                if (full == null) {
+                    return null;
+                }
+                // 空弹匣直接丢弃 depot 只保存满弹匣
+                pair[0] = full;
+            }
+            loaded = pair[0];
+        }
+        ByteBuffer buffer = loaded.buffers[--loaded.count];
+        loaded.buffers[loaded.count] = null;
+        return buffer;
+    }
+
+    private void push(Magazine[] pair, Depot depot, ByteBuffer buffer) {
+        Magazine loaded = pair[0];
+        if (loaded.count == magazineSize) {
+            if (pair[1].count < magazineSize) {
+                pair[0] = pair[1];
+                pair[1] = loaded;
+            } else if (depot.offer(loaded, maxDepotMagazines)) {
+                pair[0] = new Magazine(magazineSize);
+            } else {
+                return;
+            }
+            loaded = pair[0];
+        }
+        loaded.buffers[loaded.count++] = buffer;
+    }
+
+    private int sizeClass(int size) {
+        int shift = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        int sizeClass = Math.max(shift, minShift) - minShift;
+        return sizeClass < classCount ? sizeClass : -1;
+    }
+
+    private int classSize(int sizeClass) {
+        return 1 << (sizeClass + minShift);
+    }
+
+    public record Stats(long hits, long misses, int depotMagazines) {
+    }
+
+    private static final class Magazine {
+        private final ByteBuffer[] buffers;
+        private int count;
+
+        private Magazine(int size) {
+            this.buffers = new ByteBuffer[size];
+        }
+    }
+
+    private static final class Depot {
+        private final ConcurrentLinkedQueue<Magazine> full = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        private Magazine poll() {
+            Magazine magazine = full.poll();
+            if (magazine != null) {
+                size.decrementAndGet();
+            }
+            return magazine;
+        }
+
+        private boolean offer(Magazine magazine, int max) {
+            if (size.incrementAndGet() > max) {
+                size.decrementAndGet();
+                return false;
+            }
+            full.offer(magazine);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.dreamlike;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Per-carrier value, the carrier counterpart of {@link ThreadLocal}: every carrier (or platform thread) gets
+ * its own instance from {@code initial}, shared by all virtual threads that run on it.
+ * <p>
+ * The value is only handed out inside {@link #apply}/{@link #accept}, and the calling virtual thread is pinned
+ * to its carrier for the duration of the callback ({@link LoomSecretHelper#pinContinuation()}). It therefore
+ * cannot unmount — and let another virtual thread on the same carrier reach the same instance — while it
+ * holds the value, so the value needs no synchronization as long as the callback does not leak it. Returning
+ * the value itself from {@code apply} is rejected. Keep callbacks short and non-blocking: a blocking call
+ * blocks the carrier.
+ * <p>
+ * {@link #carrierIndex()} gives each carrier a small dense index, for striped structures that prefer
+ * arrays over a lookup.
+ */
+public final class CarrierLocal<T> {
+
+    private static final AtomicInteger NEXT_CARRIER_INDEX = new AtomicInteger();
+    private static final ThreadLocal<Integer> CARRIER_INDEX = LoomSecretHelper.newCarrierThreadLocal();
+
+    private final ThreadLocal<T> local = LoomSecretHelper.newCarrierThreadLocal();
+    private final Supplier<? extends T> initial;
+
+    private CarrierLocal(Supplier<? extends T> initial) {
+        this.initial = Objects.requireNonNull(initial, "initial");
+    }
+
+    public static <T> CarrierLocal<T> withInitial(Supplier<? extends T> initial) {
+        return new CarrierLocal<>(initial);
+    }
+
+    /**
+     * Runs {@code action} with this carrier's value while pinned to the carrier.
+     *
+     * @throws IllegalStateException if {@code action} returns the value itself
+     */
+    public <R> R apply(Function<? super T, ? extends R> action) {
+        LoomSecretHelper.pinContinuation();
+        try {
+            T value = value();
+            R result = action.apply(value);
+            if (result != null && result == value) {
+                throw new IllegalStateException("carrier-local value must not escape the callback");
+            }
+            return result;
+        } finally {
+            LoomSecretHelper.unpinContinuation();
+        }
+    }
+
+    /**
+     * Runs {@code action} with this carrier's value while pinned to the carrier.
+     */
+    public void accept(Consumer<? super T> action) {
+        LoomSecretHelper.pinContinuation();
+        try {
+            action.accept(value());
+        } finally {
+            LoomSecretHelper.unpinContinuation();
+        }
+    }
+
+    /**
+     * Drops the current carrier's value; the next access creates a new one.
+     */
+    public void remove() {
+        local.remove();
+    }
+
+    /**
+     * Dense index of the current carrier (or platform thread), assigned on first use and never reused.
+     * Only a hint on a virtual thread: it may be running on another carrier by the time the index is used.
+     */
+    public static int carrierIndex() {
+        Integer index = CARRIER_INDEX.get();
+        if (index == null) {
+            index = NEXT_CARRIER_INDEX.getAndIncrement();
+            CARRIER_INDEX.set(index);
+        }
+        return index;
+    }
+
+    private T value() {
+        T value = local.get();
+        if (value == null) {
+            value = Objects.requireNonNull(initial.get(), "initial value");
+            local.set(value);
+        }
+        return value;
+    }
+}
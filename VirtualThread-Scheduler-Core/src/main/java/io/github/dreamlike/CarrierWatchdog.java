@@ -0,0 +1,364 @@
+package io.github.dreamlike;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Detects carrier starvation of a {@link ForkJoinPool} scheduler and compensates by temporarily raising
+ * its parallelism.
+ * <p>
+ * Every {@code interval} a canary task is submitted. Once a canary has been outstanding for half of
+ * {@code stallThreshold} the watchdog samples which virtual thread is mounted on each carrier and since when.
+ * The JDK has no carrier → virtual thread index, so a sample walks the thread containers; the walk stops as soon
+ * as every carrier of the pool is accounted for and after at most {@code sampleLimit} virtual threads, so a tick
+ * stays cheap with millions of virtual threads (carriers not found within the limit are reported without their
+ * virtual thread). If the canary has not run after
+ * {@code stallThreshold} although work is queued, the pool made no progress: carriers are pinned by long
+ * CPU loops or native calls. The watchdog then adds one carrier per stalled interval
+ * ({@link ForkJoinPool#setParallelism}, at most {@code maxCompensation} in total) and reports a
+ * {@link StarvationEvent} with the stack of whatever occupies each carrier. Compensation is withdrawn one
+ * carrier at a time once the canary runs promptly for {@value #RECOVERY_TICKS} consecutive intervals.
+ * <p>
+ * Started by {@link AbstractVirtualThreadRuntime#start()} for the builtin scheduler when
+ * {@value #ENABLE_PROPERTY} is set.
+ */
+public final class CarrierWatchdog {
+
+    public static final String ENABLE_PROPERTY = "jdk.virtualThreadScheduler.watchdog";
+    public static final String INTERVAL_PROPERTY = "jdk.virtualThreadScheduler.watchdog.intervalMillis";
+    public static final String STALL_PROPERTY = "jdk.virtualThreadScheduler.watchdog.stallMillis";
+    public static final String MAX_COMPENSATION_PROPERTY = "jdk.virtualThreadScheduler.watchdog.maxCompensation";
+    public static final String SAMPLE_LIMIT_PROPERTY = "jdk.virtualThreadScheduler.watchdog.sampleLimit";
+    public static final int DEFAULT_SAMPLE_LIMIT = 10_000;
+    private static final int RECOVERY_TICKS = 10;
+
+    private final ForkJoinPool pool;
+    private final Duration interval;
+    private final Duration stallThreshold;
+    private final int maxCompensation;
+    private final int sampleLimit;
+    private final Consumer<StarvationEvent> reporter;
+    // 被监控线程写 watchdog 线程读 0 表示 canary 已经运行
+    private final AtomicLong canarySubmittedAt = new AtomicLong();
+    // 以下字段只由 watchdog 线程修改
+    private final Map<Thread, Mounted> mounted = new HashMap<>();
+    private volatile int compensation;
+    private int healthyTicks;
+    private long lastCompensatedAt;
+    private volatile Thread thread;
+
+    public CarrierWatchdog(ForkJoinPool pool, Duration interval, Duration stallThreshold, int maxCompensation,
+                           Consumer<StarvationEvent> reporter) {
+        this(pool, interval, stallThreshold, maxCompensation, DEFAULT_SAMPLE_LIMIT, reporter);
+    }
+
+    /**
+     * @param sampleLimit most virtual threads visited per sample
+     */
+    public CarrierWatchdog(ForkJoinPool pool, Duration interval, Duration stallThreshold, int maxCompensation,
+                           int sampleLimit, Consumer<StarvationEvent> reporter) {
+        this.pool = Objects.requireNonNull(pool, "pool");
+        this.interval = interval;
+        this.stallThreshold = stallThreshold;
+        this.maxCompensation = maxCompensation;
+        this.sampleLimit = sampleLimit;
+        this.reporter = Objects.requireNonNull(reporter, "reporter");
+        if (interval.isNegative() || interval.isZero() || stallThreshold.compareTo(interval) < 0) {
+            throw new IllegalArgumentException("need 0 < interval <= stallThreshold");
+        }
+    }
+
+    /**
+     * Watchdog configured from the {@code jdk.virtualThreadScheduler.watchdog.*} properties, printing events
+     * to {@code System.err}; {@code null} when {@value #ENABLE_PROPERTY} is not {@code true}.
+     */
+    public static CarrierWatchdog fromProperties(ForkJoinPool pool) {
+        if (!Boolean.getBoolean(ENABLE_PROPERTY)) {
+            return null;
+        }
+        return new CarrierWatchdog(pool,
+                Duration.ofMillis(Long.getLong(INTERVAL_PROPERTY, 100)),
+                Duration.ofMillis(Long.getLong(STALL_PROPERTY, 500)),
+                Integer.getInteger(MAX_COMPENSATION_PROPERTY, pool.getParallelism()),
+                Integer.getInteger(SAMPLE_LIMIT_PROPERTY, DEFAULT_SAMPLE_LIMIT),
+                CarrierWatchdog::print);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("watchdog already started");
+        }
+        thread = Thread.ofPlatform()
+                .daemon()
+                .name("VirtualThreadRuntime-Watchdog")
+                .start(this::loop);
+    }
+
+    public void stop() {
+        Thread watchdog = thread;
+        if (watchdog != null) {
+            watchdog.interrupt();
+        }
+    }
+
+    public ForkJoinPool pool() {
+        return pool;
+    }
+
+    /**
+     * Carriers currently added on top of the pool's original parallelism.
+     */
+    public int compensation() {
+        return compensation;
+    }
+
+    private void loop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                tick();
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Throwable t) {
+                System.err.println("[VirtualThreadRuntime] watchdog tick failed: " + t);
+            }
+        }
+        // 退出时撤销全部补偿
+        if (compensation > 0) {
+            adjustParallelism(-compensation);
+        }
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        long submittedAt = canarySubmittedAt.get();
+        if (submittedAt == 0) {
+            mounted.clear();
+            if (compensation > 0 && ++healthyTicks >= RECOVERY_TICKS) {
+                healthyTicks = 0;
+                adjustParallelism(-1);
+            }
+            submitCanary(now);
+            return;
+        }
+        healthyTicks = 0;
+        long stalled = now - submittedAt;
+        // canary 只是排在队里的正常情况占绝大多数 快到阈值时才去找挂载的虚拟线程
+        if (stalled * 2 >= stallThreshold.toNanos()) {
+            sampleCarriers(now);
+        }
+        long queued = pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+        boolean starving = stalled >= stallThreshold.toNanos()
+                && queued > 0
+                && now - lastCompensatedAt >= stallThreshold.toNanos();
+        if (!starving) {
+            return;
+        }
+        lastCompensatedAt = now;
+        boolean compensated = compensation < maxCompensation && adjustParallelism(1);
+        reporter.accept(new StarvationEvent(Instant.now(), Duration.ofNanos(stalled), queued,
+                pool.getParallelism(), compensation, compensated, snapshot(now, stalled)));
+    }
+
+    private void submitCanary(long now) {
+        canarySubmittedAt.set(now);
+        try {
+            pool.execute(() -> canarySubmittedAt.set(0));
+        } catch (RuntimeException e) {
+            canarySubmittedAt.set(0);
+        }
+    }
+
+    // 与 ElasticParallelismController 共用 pool 的监视器 见 ElasticParallelismController#coordinate
+    private boolean adjustParallelism(int delta) {
+        synchronized (pool) {
+            try {
+                pool.setParallelism(pool.getParallelism() + delta);
+                compensation += delta;
+                return true;
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                // 超过 maximumPoolSize 或者是 commonPool 之类不允许调整的 pool
+                return false;
+            }
+        }
+    }
+
+    private void sampleCarriers(long now) {
+        Map<Thread, Thread> current = VirtualThreadAccess.mountedVirtualThreads(pool, sampleLimit);
+        mounted.keySet().retainAll(current.keySet());
+        current.forEach((carrier, vt) -> {
+            Mounted previous = mounted.get(carrier);
+            if (previous == null || previous.virtualThread != vt) {
+                mounted.put(carrier, new Mounted(vt, now));
+            }
+        });
+    }
+
+    private List<CarrierSample> snapshot(long now, long stalled) {
+        List<CarrierSample> samples = new ArrayList<>();
+        for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+            if (!(entry.getKey() instanceof ForkJoinWorkerThread carrier) || carrier.getPool() != pool) {
+                continue;
+            }
+            Mounted mountedVt = mounted.get(carrier);
+            if (mountedVt != null) {
+                samples.add(new CarrierSample(carrier, mountedVt.virtualThread,
+                        Duration.ofNanos(now - mountedVt.since), mountedVt.virtualThread.getStackTrace()));
+            } else {
+                // 没有挂载虚拟线程 carrier 自身被普通任务或 native 调用占住
+                samples.add(new CarrierSample(carrier, null, Duration.ofNanos(stalled), entry.getValue()));
+            }
+        }
+        return samples;
+    }
+
+    private static void print(StarvationEvent event) {
+        System.err.println("[VirtualThreadRuntime] watchdog: " + event);
+        for (CarrierSample sample : event.carriers()) {
+            System.err.println("[VirtualThreadRuntime]   " + sample);
+            for (StackTraceElement element : sample.stack()) {
+                System.err.println("\tat " + element);
+            }
+        }
+    }
+
+    private record Mounted(Thread virtualThread, long since) {
+    }
+
+    /**
+     * One carrier at the time starvation was detected.
+     *
+     * @param virtualThread the mounted virtual thread, or {@code null} if the carrier runs something else
+     * @param runTime       how long the carrier has been observed running it (a lower bound, sampled)
+     * @param stack         stack of the virtual thread, or of the carrier itself
+     */
+    public record CarrierSample(Thread carrier, Thread virtualThread, Duration runTime, StackTraceElement[] stack) {
+        @Override
+        public String toString() {
+            return carrier.getName() + " running " + (virtualThread == null ? "<non-virtual task>" : virtualThread)
+                    + " for >= " + runTime.toMillis() + "ms";
+        }
+    }
+
+    public record StarvationEvent(Instant time, Duration stalled, long queued, int parallelism, int compensation,
+                                  boolean compensated, List<CarrierSample> carriers) {
+        @Override
+        public String toString() {
+            return "carriers starved for " + stalled.toMillis() + "ms, queued=" + queued
+                    + ", parallelism=" + parallelism + " (compensation " + compensation
+                    + (compensated ? ", just added one" : ", at limit") + ")";
+        }
+    }
+
+    /**
+     * Enumerates mounted virtual threads through {@code jdk.internal.vm.ThreadContainers} (virtual threads are
+     * tracked there by default, see {@code jdk.trackAllThreads}) and {@code VirtualThread.carrierThread}.
+     * The walk is cut short once every carrier of the pool is found or {@code limit} virtual threads were visited.
+     */
+    private static final class VirtualThreadAccess {
+        private static final MethodHandle ROOT;
+        private static final MethodHandle CHILDREN;
+        private static final MethodHandle THREADS;
+        private static final VarHandle CARRIER_THREAD;
+
+        static {
+            MethodHandle root = null;
+            MethodHandle children = null;
+            MethodHandle threads = null;
+            VarHandle carrierThread = null;
+            try {
+                var lookup = LoomSecretHelper.LOOKUP;
+                Class<?> containers = Class.forName("jdk.internal.vm.ThreadContainers", true, null);
+                Class<?> container = Class.forName("jdk.internal.vm.ThreadContainer", true, null);
+                root = lookup.findStatic(containers, "root", MethodType.methodType(container));
+                children = lookup.findVirtual(container, "children", MethodType.methodType(Stream.class));
+                threads = lookup.findVirtual(container, "threads", MethodType.methodType(Stream.class));
+                Class<?> vtClass = Class.forName("java.lang.VirtualThread", false, null);
+                carrierThread = lookup.findVarHandle(vtClass, "carrierThread", Thread.class);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("[VirtualThreadRuntime] watchdog cannot enumerate virtual threads: " + e);
+            }
+            ROOT = root;
+            CHILDREN = children;
+            THREADS = threads;
+            CARRIER_THREAD = carrierThread;
+        }
+
+        private static Map<Thread, Thread> mountedVirtualThreads(ForkJoinPool pool, int limit) {
+            Walk walk = new Walk(pool, pool.getPoolSize(), limit);
+            if (ROOT == null) {
+                return walk.result;
+            }
+            try {
+                collect(ROOT.invoke(), walk);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+            return walk.result;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static void collect(Object container, Walk walk) throws Throwable {
+            try (Stream<Thread> threads = (Stream<Thread>) THREADS.invoke(container)) {
+                Iterator<Thread> iterator = threads.iterator();
+                while (iterator.hasNext() && !walk.done()) {
+                    walk.visit(iterator.next());
+                }
+            }
+            if (walk.done()) {
+                return;
+            }
+            List<Object> children;
+            try (Stream<Object> stream = (Stream<Object>) CHILDREN.invoke(container)) {
+                children = stream.toList();
+            }
+            for (Object child : children) {
+                collect(child, walk);
+                if (walk.done()) {
+                    return;
+                }
+            }
+        }
+
+        private static final class Walk {
+            private final Map<Thread, Thread> result = new HashMap<>();
+            private final ForkJoinPool pool;
+            private final int carriers;
+            private int remaining;
+
+            private Walk(ForkJoinPool pool, int carriers, int limit) {
+                this.pool = pool;
+                this.carriers = carriers;
+                this.remaining = limit;
+            }
+
+            private void visit(Thread thread) {
+                if (!thread.isVirtual()) {
+                    return;
+                }
+                remaining--;
+                if (CARRIER_THREAD.getVolatile(thread) instanceof ForkJoinWorkerThread carrier && carrier.getPool() == pool) {
+                    result.put(carrier, thread);
+                }
+            }
+
+            private boolean done() {
+                return remaining <= 0 || result.size() >= carriers;
+            }
+        }
+    }
+}
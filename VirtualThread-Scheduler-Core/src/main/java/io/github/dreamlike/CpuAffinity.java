@@ -0,0 +1,215 @@
+package io.github.dreamlike;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Immutable CPU set that can be applied to the calling thread via {@code sched_setaffinity(2)} (FFM).
+ * <p>
+ * Affinity can only be applied from the thread itself (pid {@code 0}), so every pinning path runs code
+ * on the target thread: {@link #pinning(String, ThreadFactory)} for executor/poller threads that are
+ * created by user code, {@link BuiltinScheduler#pinCarriers} for the builtin carriers (each pins itself before
+ * its first mount), and {@link AbstractVirtualThreadRuntime#start()} for the JDK poller threads. Other threads
+ * created later inherit the mask of the thread that created them.
+ * <p>
+ * Every successful pin is recorded and can be listed with {@link #report()}.
+ */
+public final class CpuAffinity {
+
+    // 1024 字节即 8192 个 CPU 足够覆盖 sched_getaffinity 的内核掩码大小
+    private static final long MASK_BYTES = 1024;
+    private static final List<Entry> REPORT = new CopyOnWriteArrayList<>();
+
+    private final BitSet cpus;
+
+    private CpuAffinity(BitSet cpus) {
+        this.cpus = cpus;
+    }
+
+    public static CpuAffinity of(BitSet cpus) {
+        Objects.requireNonNull(cpus, "cpus");
+        if (cpus.isEmpty()) {
+            throw new IllegalArgumentException("cpu set must not be empty");
+        }
+        return new CpuAffinity((BitSet) cpus.clone());
+    }
+
+    /**
+     * Parses a Linux cpu list such as {@code 0-3,8,10-11}. {@code ;} is accepted as a separator as well,
+     * because {@code ,} already separates agent arguments.
+     */
+    public static CpuAffinity parse(String cpuList) {
+        BitSet cpus = new BitSet();
+        for (String part : cpuList.trim().split("[,;]")) {
+            String range = part.trim();
+            if (range.isEmpty()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                cpus.set(Integer.parseInt(range));
+            } else {
+                cpus.set(Integer.parseInt(range.substring(0, dash).trim()), Integer.parseInt(range.substring(dash + 1).trim()) + 1);
+            }
+        }
+        return of(cpus);
+    }
+
+    /**
+     * Reads the {@code jdk.virtualThreadScheduler.affinity.*} style property {@code key}.
+     *
+     * @return the parsed affinity, or {@code null} if the property is absent or blank
+     */
+    public static CpuAffinity fromProperty(String key) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        return parse(value);
+    }
+
+    public static boolean isSupported() {
+        return System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("linux");
+    }
+
+    public static CpuAffinity ofCurrentThread() {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment mask = arena.allocate(MASK_BYTES);
+            MemorySegment state = arena.allocate(Native.CAPTURE_LAYOUT);
+            int res = (int) Native.SCHED_GETAFFINITY.invokeExact(state, 0, MASK_BYTES, mask);
+            if (res != 0) {
+                throw new IllegalStateException("sched_getaffinity failed, errno=" + Native.errno(state));
+            }
+            return new CpuAffinity(BitSet.valueOf(mask.toArray(ValueLayout.JAVA_LONG)));
+        } catch (Throwable e) {
+            throw e instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Pins the calling thread and records it in the {@link #report()} under {@code role}.
+     *
+     * @return the effective affinity read back from the kernel (may be narrower, e.g. under cgroup cpusets)
+     */
+    public CpuAffinity applyToCurrentThread(String role) {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment mask = arena.allocate(MASK_BYTES);
+            long[] words = cpus.toLongArray();
+            for (int i = 0; i < words.length; i++) {
+                mask.setAtIndex(ValueLayout.JAVA_LONG, i, words[i]);
+            }
+            MemorySegment state = arena.allocate(Native.CAPTURE_LAYOUT);
+            int res = (int) Native.SCHED_SETAFFINITY.invokeExact(state, 0, MASK_BYTES, mask);
+            if (res != 0) {
+                throw new IllegalStateException("sched_setaffinity(" + this + ") failed, errno=" + Native.errno(state));
+            }
+        } catch (Throwable e) {
+            throw e instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(e);
+        }
+        CpuAffinity effective = ofCurrentThread();
+        REPORT.add(new Entry(role, Thread.currentThread().getName(), this, effective));
+        return effective;
+    }
+
+    /**
+     * Wraps {@code factory} so that every created thread pins itself before running its task — intended
+     * for {@code AwareShutdownExecutor} event-loop threads and custom poller threads.
+     */
+    public ThreadFactory pinning(String role, ThreadFactory factory) {
+        Objects.requireNonNull(factory, "factory");
+        return r -> factory.newThread(() -> {
+            applyToCurrentThread(role);
+            r.run();
+        });
+    }
+
+    public BitSet cpus() {
+        return (BitSet) cpus.clone();
+    }
+
+    /**
+     * Every pin performed so far, in order — the validation report printed by the runtime at {@code start()}.
+     */
+    public static List<Entry> report() {
+        return List.copyOf(REPORT);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CpuAffinity that && cpus.equals(that.cpus);
+    }
+
+    @Override
+    public int hashCode() {
+        return cpus.hashCode();
+    }
+
+    /**
+     * Formats as a Linux cpu list, e.g. {@code 0-3,8}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int start = cpus.nextSetBit(0);
+        while (start >= 0) {
+            int end = cpus.nextClearBit(start) - 1;
+            if (!sb.isEmpty()) {
+                sb.append(',');
+            }
+            sb.append(start);
+            if (end > start) {
+                sb.append('-').append(end);
+            }
+            start = cpus.nextSetBit(end + 1);
+        }
+        return sb.toString();
+    }
+
+    public record Entry(String role, String threadName, CpuAffinity requested, CpuAffinity effective) {
+        public boolean matches() {
+            return requested.equals(effective);
+        }
+
+        @Override
+        public String toString() {
+            return role + " " + threadName + " requested=" + requested + " effective=" + effective
+                    + (matches() ? "" : " (MISMATCH)");
+        }
+    }
+
+    private static final class Native {
+        private static final StructLayout CAPTURE_LAYOUT = Linker.Option.captureStateLayout();
+        private static final VarHandle ERRNO = CAPTURE_LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+        // int sched_xxxaffinity(pid_t pid, size_t cpusetsize, cpu_set_t *mask)
+        private static final MethodHandle SCHED_SETAFFINITY;
+        private static final MethodHandle SCHED_GETAFFINITY;
+
+        static {
+            Linker linker = Linker.nativeLinker();
+            FunctionDescriptor descriptor = FunctionDescriptor.of(ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS);
+            Linker.Option captureErrno = Linker.Option.captureCallState("errno");
+            SCHED_SETAFFINITY = linker.downcallHandle(
+                    linker.defaultLookup().find("sched_setaffinity").orElseThrow(), descriptor, captureErrno);
+            SCHED_GETAFFINITY = linker.downcallHandle(
+                    linker.defaultLookup().find("sched_getaffinity").orElseThrow(), descriptor, captureErrno);
+        }
+
+        private static int errno(MemorySegment state) {
+            return (int) ERRNO.get(state, 0L);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package io.github.dreamlike;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Resizes {@link ForkJoinPool} carriers to the CPU quota the process actually has and to the load it sees.
+ * <p>
+ * Every {@code interval} the controller re-reads the cgroup v2 {@code cpu.max} of the process (orchestrators
+ * resize it at runtime) and samples each pool's queue depth and blocked ratio (active carriers that are not
+ * running, i.e. compensated for managed blocking). For each pool:
+ * <ul>
+ *   <li>the <em>ceiling</em> is the quota, raised by the blocked ratio (blocked carriers do not use CPU) and
+ *       clamped to {@code [min, max]}; above the ceiling the pool is cut down at once, which is what avoids CFS
+ *       throttling;</li>
+ *   <li>it grows by one carrier after {@code growTicks} consecutive samples with more than
+ *       {@code growQueuePerCarrier} queued tasks per carrier;</li>
+ *   <li>it shrinks by one after {@code shrinkTicks} consecutive samples with an empty queue and fewer than
+ *       half of its carriers running.</li>
+ * </ul>
+ * The tick counters provide the hysteresis; any other sample resets them. Without a cgroup quota the
+ * available processors are used.
+ * <p>
+ * A {@link CarrierWatchdog} watching the same pool must be registered with {@link #coordinate}: the policy then
+ * applies to the parallelism without the watchdog's current compensation, which is added back on every resize,
+ * so the controller neither cuts compensation carriers below the ceiling nor grows on top of them. Both sides
+ * resize the pool while holding its monitor.
+ * <p>
+ * Started by {@link AbstractVirtualThreadRuntime#start()} for the builtin scheduler when
+ * {@value #ENABLE_PROPERTY} is set.
+ */
+public final class ElasticParallelismController {
+
+    public static final String ENABLE_PROPERTY = "jdk.virtualThreadScheduler.elastic";
+    public static final String INTERVAL_PROPERTY = "jdk.virtualThreadScheduler.elastic.intervalMillis";
+    public static final String MIN_PROPERTY = "jdk.virtualThreadScheduler.elastic.min";
+    public static final String MAX_PROPERTY = "jdk.virtualThreadScheduler.elastic.max";
+    public static final String GROW_QUEUE_PROPERTY = "jdk.virtualThreadScheduler.elastic.growQueuePerCarrier";
+    public static final String GROW_TICKS_PROPERTY = "jdk.virtualThreadScheduler.elastic.growTicks";
+    public static final String SHRINK_TICKS_PROPERTY = "jdk.virtualThreadScheduler.elastic.shrinkTicks";
+    private static final Path CGROUP_ROOT = Path.of("/sys/fs/cgroup");
+
+    private final List<Managed> managed = new CopyOnWriteArrayList<>();
+    private final Map<ForkJoinPool, CarrierWatchdog> watchdogs = new ConcurrentHashMap<>();
+    private final Duration interval;
+    private final int min;
+    private final int max;
+    private final int growQueuePerCarrier;
+    private final int growTicks;
+    private final int shrinkTicks;
+    private volatile Thread thread;
+
+    public ElasticParallelismController(List<ForkJoinPool> pools, Duration interval, int min, int max,
+                                        int growQueuePerCarrier, int growTicks, int shrinkTicks) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        this.interval = interval;
+        this.min = min;
+        this.max = max;
+        this.growQueuePerCarrier = growQueuePerCarrier;
+        this.growTicks = growTicks;
+        this.shrinkTicks = shrinkTicks;
+        pools.forEach(this::manage);
+    }
+
+    /**
+     * Adds a pool, e.g. one a runtime creates lazily, under the same policy settings.
+     */
+    public void manage(ForkJoinPool pool) {
+        managed.add(new Managed(Objects.requireNonNull(pool, "pool"),
+                new Policy(min, max, growQueuePerCarrier, growTicks, shrinkTicks)));
+    }
+
+    /**
+     * Makes the controller leave the carriers added by {@code watchdog} to it.
+     */
+    public void coordinate(CarrierWatchdog watchdog) {
+        watchdogs.put(watchdog.pool(), watchdog);
+    }
+
+    /**
+     * Controller for {@code pool} configured from the {@code jdk.virtualThreadScheduler.elastic.*} properties;
+     * {@code null} when {@value #ENABLE_PROPERTY} is not {@code true}.
+     */
+    public static ElasticParallelismController fromProperties(ForkJoinPool pool) {
+        if (!Boolean.getBoolean(ENABLE_PROPERTY)) {
+            return null;
+        }
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return new ElasticParallelismController(List.of(pool),
+                Duration.ofMillis(Long.getLong(INTERVAL_PROPERTY, 1000)),
+                Integer.getInteger(MIN_PROPERTY, 1),
+                Integer.getInteger(MAX_PROPERTY, Math.max(pool.getParallelism(), cpus * 2)),
+                Integer.getInteger(GROW_QUEUE_PROPERTY, 4),
+                Integer.getInteger(GROW_TICKS_PROPERTY, 2),
+                Integer.getInteger(SHRINK_TICKS_PROPERTY, 10));
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("controller already started");
+        }
+        thread = Thread.ofPlatform()
+                .daemon()
+                .name("VirtualThreadRuntime-Elastic")
+                .start(this::loop);
+    }
+
+    public void stop() {
+        Thread controller = thread;
+        if (controller != null) {
+            controller.interrupt();
+        }
+    }
+
+    private void loop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                tick();
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Throwable t) {
+                System.err.println("[VirtualThreadRuntime] elastic tick failed: " + t);
+            }
+        }
+    }
+
+    private void tick() {
+        double quota = cpuQuota();
+        for (Managed entry : managed) {
+            ForkJoinPool pool = entry.pool();
+            CarrierWatchdog watchdog = watchdogs.get(pool);
+            Sample sample = new Sample(quota, pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount(),
+                    pool.getActiveThreadCount(), pool.getRunningThreadCount());
+            // 与 CarrierWatchdog 的调整互斥 补偿在锁内读取 保证 base 与 parallelism 对应同一时刻
+            synchronized (pool) {
+                int compensation = watchdog == null ? 0 : watchdog.compensation();
+                int current = pool.getParallelism();
+                int base = Math.max(1, current - compensation);
+                int next = entry.policy().next(base, sample);
+                if (next == base) {
+                    continue;
+                }
+                try {
+                    pool.setParallelism(next + compensation);
+                    System.out.println("[VirtualThreadRuntime] elastic: parallelism " + current + " -> "
+                            + (next + compensation) + " (compensation " + compensation + ", " + sample + ")");
+                } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                    System.err.println("[VirtualThreadRuntime] elastic: cannot set parallelism " + (next + compensation) + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * CPUs granted by the cgroup v2 {@code cpu.max} of this process, or the available processors when there is
+     * no quota or no cgroup v2.
+     */
+    public static double cpuQuota() {
+        double quota = -1;
+        try {
+            quota = parseCpuMax(Files.readString(cgroupDirectory().resolve("cpu.max")));
+        } catch (IOException | RuntimeException e) {
+            // 没有 cgroup v2 或者没有权限 退回到可用处理器数
+        }
+        return quota > 0 ? quota : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Parses {@code "<quota> <period>"} into CPUs; {@code -1} for {@code "max ..."} (unlimited).
+     */
+    public static double parseCpuMax(String content) {
+        String[] parts = content.trim().split("\\s+");
+        if (parts[0].equals("max")) {
+            return -1;
+        }
+        long quota = Long.parseLong(parts[0]);
+        long period = parts.length > 1 ? Long.parseLong(parts[1]) : 100_000;
+        return (double) quota / period;
+    }
+
+    private static Path cgroupDirectory() throws IOException {
+        // cgroup v2 只有一行 "0::/path"
+        for (String line : Files.readAllLines(Path.of("/proc/self/cgroup"))) {
+            if (line.startsWith("0::")) {
+                Path dir = CGROUP_ROOT.resolve(line.substring(3).replaceFirst("^/", ""));
+                if (Files.exists(dir.resolve("cpu.max"))) {
+                    return dir;
+                }
+            }
+        }
+        return CGROUP_ROOT;
+    }
+
+    private record Managed(ForkJoinPool pool, Policy policy) {
+    }
+
+    /**
+     * One observation of a pool: the current quota in CPUs, queued tasks, and active and running carriers.
+     */
+    public record Sample(double quotaCpus, long queued, int active, int running) {
+        public double blockedRatio() {
+            return active == 0 ? 0 : (double) Math.max(0, active - running) / active;
+        }
+    }
+
+    /**
+     * The sizing decision for one pool, with its hysteresis state. Not thread-safe.
+     */
+    public static final class Policy {
+        private final int min;
+        private final int max;
+        private final int growQueuePerCarrier;
+        private final int growTicks;
+        private final int shrinkTicks;
+        private int pressure;
+        private int idle;
+
+        public Policy(int min, int max, int growQueuePerCarrier, int growTicks, int shrinkTicks) {
+            if (min < 1 || max < min) {
+                throw new IllegalArgumentException("need 1 <= min <= max");
+            }
+            this.min = min;
+            this.max = max;
+            this.growQueuePerCarrier = growQueuePerCarrier;
+            this.growTicks = Math.max(1, growTicks);
+            this.shrinkTicks = Math.max(1, shrinkTicks);
+        }
+
+        /**
+         * Returns the parallelism to use after observing {@code sample} with {@code current} carriers.
+         */
+        public int next(int current, Sample sample) {
+            Objects.requireNonNull(sample, "sample");
+            // 阻塞中的 carrier 不消耗 CPU 按阻塞比例放宽上限
+            double blocked = Math.min(sample.blockedRatio(), 0.9);
+            int ceiling = clamp((int) Math.ceil(sample.quotaCpus() / (1 - blocked)));
+            if (current > ceiling) {
+                pressure = 0;
+                idle = 0;
+                return ceiling;
+            }
+            if (sample.queued() > (long) growQueuePerCarrier * current) {
+                idle = 0;
+                if (++pressure >= growTicks && current < ceiling) {
+                    pressure = 0;
+                    return current + 1;
+                }
+                return current;
+            }
+            pressure = 0;
+            if (sample.queued() == 0 && sample.running() * 2 < current) {
+                if (++idle >= shrinkTicks && current > min) {
+                    idle = 0;
+                    return current - 1;
+                }
+                return current;
+            }
+            idle = 0;
+            return current;
+        }
+
+        private int clamp(int value) {
+            return Math.max(min, Math.min(max, value));
+        }
+    }
+}
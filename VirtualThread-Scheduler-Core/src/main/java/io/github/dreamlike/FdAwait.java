@@ -0,0 +1,297 @@
+package io.github.dreamlike;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Waits for readiness of arbitrary file descriptors, e.g. eventfds or pipes owned by native libraries.
+ * <p>
+ * On a virtual thread the wait goes through {@code sun.nio.ch.Poller.poll}, i.e. the poller of the active
+ * {@link VirtualThreadRuntime} when the agent is installed, so the virtual thread unmounts instead of blocking
+ * its carrier. {@link #awaitAny} registers the descriptors with a temporary epoll instance and waits on that
+ * single fd, so a select over N descriptors costs one poller registration and no helper threads. On a platform
+ * thread both simply block in {@code poll(2)}.
+ * <p>
+ * {@code events} are {@link #POLLIN} and/or {@link #POLLOUT}. A descriptor that reports an error or hang-up
+ * counts as ready — the following read or write will surface it. The descriptors stay owned by the caller.
+ * Linux only.
+ */
+public final class FdAwait {
+
+    public static final int POLLIN = 0x001;
+    public static final int POLLOUT = 0x004;
+
+    private static final MethodHandle POLLER_POLL;
+    private static final int NET_POLLIN;
+    private static final int NET_POLLOUT;
+    private static final BooleanSupplier ALWAYS_OPEN = () -> true;
+
+    static {
+        try {
+            var lookup = LoomSecretHelper.LOOKUP;
+            Class<?> poller = Class.forName("sun.nio.ch.Poller", false, null);
+            Class<?> net = Class.forName("sun.nio.ch.Net", true, null);
+            POLLER_POLL = lookup.findStatic(poller, "poll",
+                    MethodType.methodType(void.class, int.class, int.class, long.class, BooleanSupplier.class));
+            NET_POLLIN = (short) lookup.findStaticGetter(net, "POLLIN", short.class).invoke();
+            NET_POLLOUT = (short) lookup.findStaticGetter(net, "POLLOUT", short.class).invoke();
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed to resolve handles for FdAwait", e);
+        }
+    }
+
+    private FdAwait() {
+    }
+
+    public static boolean isSupported() {
+        return System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("linux");
+    }
+
+    /**
+     * Waits until {@code fd} is ready for {@code events}.
+     *
+     * @param timeout {@code null} to wait forever, {@link Duration#ZERO} to only check
+     * @return {@code true} if ready, {@code false} on timeout
+     */
+    public static boolean await(int fd, int events, Duration timeout) throws IOException, InterruptedException {
+        return awaitAny(new int[]{fd}, new int[]{events}, timeout) == 0;
+    }
+
+    /**
+     * Waits until any of {@code fds} is ready for {@code events}.
+     *
+     * @return the index of the lowest ready descriptor, or {@code -1} on timeout
+     */
+    public static int awaitAny(int[] fds, int events, Duration timeout) throws IOException, InterruptedException {
+        int[] perFd = new int[fds.length];
+        Arrays.fill(perFd, events);
+        return awaitAny(fds, perFd, timeout);
+    }
+
+    /**
+     * Waits until any {@code fds[i]} is ready for {@code events[i]}, like a Go {@code select} over descriptors.
+     *
+     * @param timeout {@code null} to wait forever, {@link Duration#ZERO} to only check
+     * @return the index of the lowest ready descriptor, or {@code -1} on timeout
+     * @throws InterruptedException if the thread is interrupted while waiting; the interrupt status is cleared
+     */
+    public static int awaitAny(int[] fds, int[] events, Duration timeout) throws IOException, InterruptedException {
+        Objects.requireNonNull(fds, "fds");
+        if (fds.length == 0 || fds.length != events.length) {
+            throw new IllegalArgumentException("need one events mask per fd");
+        }
+        for (int event : events) {
+            if (event == 0 || (event & ~(POLLIN | POLLOUT)) != 0) {
+                throw new IllegalArgumentException("events must be POLLIN and/or POLLOUT");
+            }
+        }
+        if (timeout != null && timeout.isNegative()) {
+            throw new IllegalArgumentException("timeout must not be negative");
+        }
+        long deadline = timeout == null ? 0 : System.nanoTime() + timeout.toNanos();
+        try (Arena arena = Arena.ofConfined()) {
+            Native.PollFds pollFds = new Native.PollFds(arena, fds, events);
+            // 先不阻塞地检查一次 已经就绪时不必注册
+            int ready = pollFds.poll(0);
+            if (ready >= 0 || (timeout != null && timeout.isZero())) {
+                return ready;
+            }
+            if (!Thread.currentThread().isVirtual()) {
+                return awaitPlatform(pollFds, timeout, deadline);
+            }
+            // poller 一次只接受一个 fd 的单一事件 其余情况等待 epoll fd 可读
+            if (fds.length == 1 && events[0] != (POLLIN | POLLOUT)) {
+                int event = events[0] == POLLIN ? NET_POLLIN : NET_POLLOUT;
+                return awaitVirtual(pollFds, fds[0], event, timeout, deadline);
+            }
+            int epfd = Native.epoll(arena, fds, events);
+            try {
+                return awaitVirtual(pollFds, epfd, NET_POLLIN, timeout, deadline);
+            } finally {
+                Native.close(epfd);
+            }
+        }
+    }
+
+    private static int awaitVirtual(Native.PollFds pollFds, int waitFd, int event, Duration timeout, long deadline)
+            throws IOException, InterruptedException {
+        while (true) {
+            long nanos = timeout == null ? 0 : deadline - System.nanoTime();
+            if (timeout != null && nanos <= 0) {
+                return -1;
+            }
+            try {
+                POLLER_POLL.invokeExact(waitFd, event, nanos, ALWAYS_OPEN);
+            } catch (IOException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            // poller 的唤醒可能是超时或者虚假唤醒 以 poll(2) 的结果为准
+            int ready = pollFds.poll(0);
+            if (ready >= 0) {
+                return ready;
+            }
+        }
+    }
+
+    private static int awaitPlatform(Native.PollFds pollFds, Duration timeout, long deadline)
+            throws IOException, InterruptedException {
+        while (true) {
+            int millis;
+            if (timeout == null) {
+                millis = -1;
+            } else {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    return -1;
+                }
+                millis = (int) Math.min(Integer.MAX_VALUE, Math.max(1, Duration.ofNanos(nanos).toMillis()));
+            }
+            int ready = pollFds.poll(millis);
+            if (ready >= 0) {
+                return ready;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private static final class Native {
+        private static final StructLayout CAPTURE_LAYOUT = Linker.Option.captureStateLayout();
+        private static final VarHandle ERRNO = CAPTURE_LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+        private static final int EINTR = 4;
+        private static final int EPOLL_CLOEXEC = 0x80000;
+        private static final int EPOLL_CTL_ADD = 1;
+        // struct pollfd { int fd; short events; short revents; }
+        private static final long POLLFD_SIZE = 8;
+        // struct epoll_event 在 x86_64 上是 packed 的 12 字节 其他架构 16 字节 data 不使用 统一按 16 字节分配
+        private static final long EPOLL_EVENT_SIZE = 16;
+        // int poll(struct pollfd *fds, nfds_t nfds, int timeout)
+        private static final MethodHandle POLL;
+        // int epoll_create1(int flags)
+        private static final MethodHandle EPOLL_CREATE1;
+        // int epoll_ctl(int epfd, int op, int fd, struct epoll_event *event)
+        private static final MethodHandle EPOLL_CTL;
+        // int close(int fd)
+        private static final MethodHandle CLOSE;
+
+        static {
+            Linker linker = Linker.nativeLinker();
+            Linker.Option captureErrno = Linker.Option.captureCallState("errno");
+            POLL = linker.downcallHandle(linker.defaultLookup().find("poll").orElseThrow(),
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT),
+                    captureErrno);
+            EPOLL_CREATE1 = linker.downcallHandle(linker.defaultLookup().find("epoll_create1").orElseThrow(),
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), captureErrno);
+            EPOLL_CTL = linker.downcallHandle(linker.defaultLookup().find("epoll_ctl").orElseThrow(),
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT,
+                            ValueLayout.JAVA_INT, ValueLayout.ADDRESS), captureErrno);
+            CLOSE = linker.downcallHandle(linker.defaultLookup().find("close").orElseThrow(),
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+        }
+
+        /**
+         * Creates an epoll fd watching every {@code fds[i]} for {@code events[i]}; the caller closes it.
+         */
+        private static int epoll(Arena arena, int[] fds, int[] events) throws IOException {
+            MemorySegment state = arena.allocate(CAPTURE_LAYOUT);
+            try {
+                int epfd = (int) EPOLL_CREATE1.invokeExact(state, EPOLL_CLOEXEC);
+                if (epfd < 0) {
+                    throw new IOException("epoll_create1 failed, errno=" + errno(state));
+                }
+                MemorySegment event = arena.allocate(EPOLL_EVENT_SIZE);
+                for (int i = 0; i < fds.length; i++) {
+                    // EPOLLIN/EPOLLOUT 与 POLLIN/POLLOUT 数值相同
+                    event.set(ValueLayout.JAVA_INT, 0, events[i]);
+                    int res = (int) EPOLL_CTL.invokeExact(state, epfd, EPOLL_CTL_ADD, fds[i], event);
+                    if (res != 0) {
+                        int errno = errno(state);
+                        close(epfd);
+                        throw new IOException("epoll_ctl(" + fds[i] + ") failed, errno=" + errno);
+                    }
+                }
+                return epfd;
+            } catch (IOException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static void close(int fd) {
+            try {
+                int _ = (int) CLOSE.invokeExact(fd);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static int errno(MemorySegment state) {
+            return (int) ERRNO.get(state, 0L);
+        }
+
+        private static final class PollFds {
+            private final MemorySegment pollFds;
+            private final MemorySegment state;
+            private final int count;
+
+            private PollFds(Arena arena, int[] fds, int[] events) {
+                this.count = fds.length;
+                this.pollFds = arena.allocate(POLLFD_SIZE * count, 4);
+                this.state = arena.allocate(CAPTURE_LAYOUT);
+                for (int i = 0; i < count; i++) {
+                    pollFds.set(ValueLayout.JAVA_INT, i * POLLFD_SIZE, fds[i]);
+                    pollFds.set(ValueLayout.JAVA_SHORT, i * POLLFD_SIZE + 4, (short) events[i]);
+                }
+            }
+
+            /**
+             * Runs {@code poll(2)}; returns the lowest ready index, or {@code -1} on timeout or EINTR.
+             */
+            private int poll(int timeoutMillis) throws IOException {
+                int res;
+                try {
+                    res = (int) POLL.invokeExact(state, pollFds, (long) count, timeoutMillis);
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+                if (res < 0) {
+                    int errno = errno(state);
+                    if (errno == EINTR) {
+                        return -1;
+                    }
+                    throw new IOException("poll failed, errno=" + errno);
+                }
+                if (res == 0) {
+                    return -1;
+                }
+                for (int i = 0; i < count; i++) {
+                    if (pollFds.get(ValueLayout.JAVA_SHORT, i * POLLFD_SIZE + 6) != 0) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package io.github.dreamlike;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Per-key variant of {@link VirtualThreadConcurrencyLimiter} — one limit per downstream endpoint,
+ * tenant or shard key instead of one global limit.
+ * <p>
+ * Every key lazily gets its own {@link Partition} holding {@code permitsPerKey} reserved permits.
+ * Once a partition has used up its reserved permits it may borrow up to {@code maxBorrowPerKey}
+ * permits from a global pool of {@code sharedPermits} that is shared by all keys.
+ * <ul>
+ *   <li>Permit accounting is a CAS loop on a per-partition counter — no {@code Semaphore}, no lock.
+ *       Different keys never write the same memory on the fast path; the global pool is only touched
+ *       while a partition is running above its reservation.</li>
+ *   <li>Partitions with no permits held and no waiters for longer than {@code idleTimeout} are evicted
+ *       by {@link #evictIdle()}. Eviction is also triggered opportunistically from the acquire path
+ *       (sampled, so it never becomes a shared write hot spot).</li>
+ * </ul>
+ * Like {@link VirtualThreadConcurrencyLimiter} there is no max-wait policy; waiting threads park until
+ * a permit for their key becomes available.
+ */
+public class KeyedVirtualThreadConcurrencyLimiter<K> {
+
+    private static final int ACQUIRED = 0;
+    private static final int FULL = 1;
+    private static final int RETIRED = 2;
+
+    private static final int RETIRED_MARK = -1;
+    // 每 EVICT_SAMPLE 次 acquire 抽样触发一次淘汰检查
+    private static final int EVICT_SAMPLE = 1024;
+
+    private final int permitsPerKey;
+    private final int maxBorrowPerKey;
+    private final long idleTimeoutNanos;
+    private final AtomicInteger sharedAvailable;
+    private final ConcurrentHashMap<K, Partition> partitions = new ConcurrentHashMap<>();
+    /**
+     * Partitions that have a waiter blocked on borrowing — signalled when shared capacity comes back.
+     * Each partition is queued at most once (see {@link Partition#borrowQueued}) and removed when evicted.
+     */
+    private final ConcurrentLinkedQueue<Partition> borrowers = new ConcurrentLinkedQueue<>();
+    private volatile long lastEvictNanos = System.nanoTime();
+
+    public KeyedVirtualThreadConcurrencyLimiter(int permitsPerKey, Duration idleTimeout) {
+        this(permitsPerKey, 0, 0, idleTimeout);
+    }
+
+    public KeyedVirtualThreadConcurrencyLimiter(int permitsPerKey, int sharedPermits, int maxBorrowPerKey, Duration idleTimeout) {
+        if (permitsPerKey <= 0) {
+            throw new IllegalArgumentException("permitsPerKey must be positive");
+        }
+        if (sharedPermits < 0 || maxBorrowPerKey < 0) {
+            throw new IllegalArgumentException("sharedPermits and maxBorrowPerKey must not be negative");
+        }
+        this.permitsPerKey = permitsPerKey;
+        this.maxBorrowPerKey = Math.min(maxBorrowPerKey, sharedPermits);
+        this.sharedAvailable = new AtomicInteger(sharedPermits);
+        this.idleTimeoutNanos = Objects.requireNonNull(idleTimeout, "idleTimeout").toNanos();
+    }
+
+    public void execute(K key, Runnable command) {
+        newThread(key, command);
+    }
+
+    public Thread newThread(K key, Runnable r) {
+        Objects.requireNonNull(key, "key");
+        return Thread.startVirtualThread(() -> run(key, r));
+    }
+
+    /**
+     * Returns a view bound to a single key, usable wherever a plain
+     * {@link Executor}/{@link ThreadFactory} is expected.
+     */
+    public KeyView forKey(K key) {
+        return new KeyView(Objects.requireNonNull(key, "key"));
+    }
+
+    /**
+     * Runs {@code r} on the calling thread while holding one permit of {@code key}.
+     */
+    public void run(K key, Runnable r) {
+        Partition partition = acquire(key);
+        try {
+            r.run();
+        } finally {
+            release(partition);
+        }
+    }
+
+    public int partitionCount() {
+        return partitions.size();
+    }
+
+    public int sharedAvailable() {
+        return sharedAvailable.get();
+    }
+
+    /**
+     * Evicts partitions that have been idle for longer than the idle timeout.
+     *
+     * @return number of evicted partitions
+     */
+    public int evictIdle() {
+        long now = System.nanoTime();
+        lastEvictNanos = now;
+        int evicted = 0;
+        for (var entry : partitions.entrySet()) {
+            Partition partition = entry.getValue();
+            if (partition.waiters.isEmpty()
+                    && now - partition.lastUsedNanos > idleTimeoutNanos
+                    && partition.used.compareAndSet(0, RETIRED_MARK)) {
+                partitions.remove(entry.getKey(), partition);
+                if (partition.borrowQueued.get()) {
+                    borrowers.remove(partition);
+                }
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    // ==================== permit accounting ====================
+
+    private Partition acquire(K key) {
+        maybeEvict();
+        Partition partition = partitionOf(key);
+        Waiter waiter = null;
+        for (; ; ) {
+            if (waiter != null && waiter.state.get() == Waiter.SIGNALLED) {
+                // 唤醒信号已被本次重试消费
+                waiter = null;
+            }
+            int result = partition.tryAcquire();
+            if (result == ACQUIRED) {
+                if (waiter != null) {
+                    if (waiter.cancel()) {
+                        // 没被唤醒就拿到了许可 等待者还留在队列里 不移除会一直挡住 evictIdle
+                        partition.waiters.remove(waiter);
+                    } else {
+                        // 拿到许可的同时也被唤醒了 把唤醒信号传递下去 避免其他等待者错过空闲许可
+                        partition.signalNext();
+                    }
+                }
+                return partition;
+            }
+            if (result == RETIRED) {
+                // 分区已被淘汰 重新获取新的分区实例
+                if (waiter != null && waiter.cancel()) {
+                    partition.waiters.remove(waiter);
+                }
+                waiter = null;
+                partition = partitionOf(key);
+                continue;
+            }
+            if (waiter == null) {
+                waiter = new Waiter(Thread.currentThread());
+                partition.waiters.add(waiter);
+                if (maxBorrowPerKey > 0 && partition.borrowQueued.compareAndSet(false, true)) {
+                    borrowers.add(partition);
+                }
+                // 入队后再检查一次 避免与 release 之间丢失唤醒
+                continue;
+            }
+            LockSupport.park(this);
+        }
+    }
+
+    private void release(Partition partition) {
+        int prev = partition.used.getAndDecrement();
+        partition.lastUsedNanos = System.nanoTime();
+        if (prev > permitsPerKey) {
+            // 该许可是从全局池借来的 归还后唤醒一个等待借用的分区
+            sharedAvailable.incrementAndGet();
+            Partition borrower;
+            while ((borrower = borrowers.poll()) != null) {
+                borrower.borrowQueued.set(false);
+                boolean signalled = borrower.signalNext();
+                // 每个分区只入队一次 还有其他等待者时放回队尾 否则它们等不到下一次归还的借用许可
+                if (!borrower.waiters.isEmpty() && borrower.borrowQueued.compareAndSet(false, true)) {
+                    borrowers.add(borrower);
+                }
+                if (signalled) {
+                    break;
+                }
+            }
+        }
+        partition.signalNext();
+    }
+
+    private Partition partitionOf(K key) {
+        return partitions.computeIfAbsent(key, _ -> new Partition());
+    }
+
+    private void maybeEvict() {
+        if ((ThreadLocalRandom.current().nextInt() & (EVICT_SAMPLE - 1)) != 0) {
+            return;
+        }
+        if (System.nanoTime() - lastEvictNanos > idleTimeoutNanos) {
+            evictIdle();
+        }
+    }
+
+    private boolean tryBorrow() {
+        for (; ; ) {
+            int available = sharedAvailable.get();
+            if (available <= 0) {
+                return false;
+            }
+            if (sharedAvailable.compareAndSet(available, available - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private final class Partition {
+        /**
+         * Permits currently held by this key (reserved + borrowed), or {@link #RETIRED_MARK} once evicted.
+         * Borrowed permits are simply {@code used - permitsPerKey}, so there is no second counter to keep in sync.
+         */
+        private final AtomicInteger used = new AtomicInteger();
+        private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+        // 是否已在 borrowers 里 每个等待者都入队会让 borrowers 随等待者数量增长
+        private final AtomicBoolean borrowQueued = new AtomicBoolean();
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        private int tryAcquire() {
+            for (; ; ) {
+                int current = used.get();
+                if (current == RETIRED_MARK) {
+                    return RETIRED;
+                }
+                if (current < permitsPerKey) {
+                    if (used.compareAndSet(current, current + 1)) {
+                        return ACQUIRED;
+                    }
+                    continue;
+                }
+                if (current >= permitsPerKey + maxBorrowPerKey || !tryBorrow()) {
+                    return FULL;
+                }
+                if (used.compareAndSet(current, current + 1)) {
+                    return ACQUIRED;
+                }
+                // 计数被并发修改 归还借到的许可后重试
+                sharedAvailable.incrementAndGet();
+            }
+        }
+
+        private boolean signalNext() {
+            Waiter waiter;
+            while ((waiter = waiters.poll()) != null) {
+                if (waiter.signal()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Waiter {
+        private static final int WAITING = 0;
+        private static final int SIGNALLED = 1;
+        private static final int CANCELLED = 2;
+
+        private final Thread thread;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private Waiter(Thread thread) {
+            this.thread = thread;
+        }
+
+        private boolean signal() {
+            if (state.compareAndSet(WAITING, SIGNALLED)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return false if the waiter had already been signalled
+         */
+        private boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+    }
+
+    public final class KeyView implements Executor, ThreadFactory {
+        private final K key;
+
+        private KeyView(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            KeyedVirtualThreadConcurrencyLimiter.this.execute(key, command);
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return KeyedVirtualThreadConcurrencyLimiter.this.newThread(key, r);
+        }
+    }
+}
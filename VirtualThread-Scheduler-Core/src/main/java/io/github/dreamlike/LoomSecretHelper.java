@@ -13,6 +13,9 @@ public class LoomSecretHelper {
     public static final MethodHandles.Lookup LOOKUP;
     private static final MethodHandle CURRENT_CARRIER_THREAD;
     private static final VarHandle VIRTUAL_THREAD_TASK_VAR_HANDLER;
+    private static final MethodHandle NEW_CARRIER_THREAD_LOCAL;
+    private static final MethodHandle PIN;
+    private static final MethodHandle UNPIN;
 
     static {
         try {
@@ -24,8 +27,15 @@ public class LoomSecretHelper {
             Class<? extends Thread> vtClass = Thread.ofVirtual().unstarted(() -> {
             }).getClass();
             VIRTUAL_THREAD_TASK_VAR_HANDLER = LOOKUP.unreflectVarHandle(vtClass.getDeclaredField("runContinuation"));
+            // CarrierThreadLocal 覆盖了 get/set 在虚拟线程上读写的是 carrier 的 ThreadLocalMap
+            Class<?> carrierThreadLocal = Class.forName("jdk.internal.misc.CarrierThreadLocal", true, null);
+            NEW_CARRIER_THREAD_LOCAL = LOOKUP.findConstructor(carrierThreadLocal, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(ThreadLocal.class));
+            Class<?> continuation = Class.forName("jdk.internal.vm.Continuation", true, null);
+            PIN = LOOKUP.findStatic(continuation, "pin", MethodType.methodType(void.class));
+            UNPIN = LOOKUP.findStatic(continuation, "unpin", MethodType.methodType(void.class));
         } catch (NoSuchMethodException | InvocationTargetException | InstantiationException | IllegalAccessException |
-                 NoSuchFieldException e) {
+                 NoSuchFieldException | ClassNotFoundException e) {
             throw new RuntimeException(e);
         }
     }
@@ -43,6 +53,39 @@ public class LoomSecretHelper {
         return (Thread.VirtualThreadTask) VIRTUAL_THREAD_TASK_VAR_HANDLER.get(currentThread);
     }
 
+    /**
+     * A {@link ThreadLocal} whose value belongs to the carrier: on a virtual thread {@code get}/{@code set}
+     * access the map of the carrier it is mounted on. See {@link CarrierLocal} for the safe way to use it.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ThreadLocal<T> newCarrierThreadLocal() {
+        try {
+            return (ThreadLocal<T>) NEW_CARRIER_THREAD_LOCAL.invokeExact();
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Pins the current virtual thread to its carrier until the matching {@link #unpinContinuation()}:
+     * parking blocks the carrier instead of unmounting. No-op on platform threads. Calls nest.
+     */
+    public static void pinContinuation() {
+        try {
+            PIN.invokeExact();
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void unpinContinuation() {
+        try {
+            UNPIN.invokeExact();
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static Thread getCurrentCarrierThread() {
         try {
             return (Thread) CURRENT_CARRIER_THREAD.invokeExact();
@@ -0,0 +1,158 @@
+package io.github.dreamlike;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Virtual thread scheduler that groups carriers per NUMA node.
+ * <p>
+ * Each {@link NumaTopology.Node} gets its own {@link ForkJoinPool} whose carriers are pinned to the
+ * node's CPUs, so work stealing naturally stays within a node.
+ * <ul>
+ *   <li>{@code onStart} places a virtual thread on the node of the carrier that starts it (spawn locality),
+ *       or round-robin when started from a non-carrier thread.</li>
+ *   <li>{@code onContinue} sends it back to the node of {@link Thread.VirtualThreadTask#preferredCarrier()},
+ *       its home node.</li>
+ *   <li>Work only crosses nodes when the home node is saturated — every carrier busy and more than
+ *       {@code spillThreshold} tasks queued, in its submission queue or its carriers' local queues — and
+ *       another node has idle carriers.</li>
+ * </ul>
+ * Enabled through {@link AbstractVirtualThreadRuntime#defaultScheduler()} with {@value #ENABLE_PROPERTY}
+ * or {@value NumaTopology#SIMULATE_PROPERTY}.
+ */
+public final class NumaAwareScheduler implements Thread.VirtualThreadScheduler {
+
+    public static final String ENABLE_PROPERTY = "jdk.virtualThreadScheduler.numa";
+    public static final String SPILL_THRESHOLD_PROPERTY = "jdk.virtualThreadScheduler.numa.spillThreshold";
+    private static final int DEFAULT_SPILL_THRESHOLD = 64;
+
+    private final NumaTopology topology;
+    private final ForkJoinPool[] pools;
+    private final int spillThreshold;
+    private final AtomicInteger nextNode = new AtomicInteger();
+    private final ScheduledExecutorService timer;
+
+    public NumaAwareScheduler(NumaTopology topology) {
+        this(topology, Integer.getInteger(SPILL_THRESHOLD_PROPERTY, DEFAULT_SPILL_THRESHOLD));
+    }
+
+    public NumaAwareScheduler(NumaTopology topology, int spillThreshold) {
+        this.topology = topology;
+        this.spillThreshold = spillThreshold;
+        List<NumaTopology.Node> nodes = topology.nodes();
+        this.pools = new ForkJoinPool[nodes.size()];
+        for (int i = 0; i < pools.length; i++) {
+            int nodeIndex = i;
+            NumaTopology.Node node = nodes.get(i);
+            AtomicInteger carrierIndex = new AtomicInteger();
+            pools[i] = new ForkJoinPool(Math.max(1, node.cpuCount()),
+                    pool -> new NodeCarrierThread(pool, this, nodeIndex, node.cpus(), carrierIndex.getAndIncrement()),
+                    null, true);
+        }
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> Thread.ofPlatform()
+                .daemon()
+                .name("NumaAwareScheduler-timer")
+                .unstarted(r));
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLE_PROPERTY) || System.getProperty(NumaTopology.SIMULATE_PROPERTY) != null;
+    }
+
+    public NumaTopology topology() {
+        return topology;
+    }
+
+    @Override
+    public void onStart(Thread.VirtualThreadTask task) {
+        int node = currentNode();
+        submit(node >= 0 ? node : Math.floorMod(nextNode.getAndIncrement(), pools.length), task);
+    }
+
+    @Override
+    public void onContinue(Thread.VirtualThreadTask task) {
+        int home = task.preferredCarrier() instanceof NodeCarrierThread carrier && carrier.owner == this
+                ? carrier.node
+                : currentNode();
+        submit(home >= 0 ? home : Math.floorMod(nextNode.getAndIncrement(), pools.length), task);
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(task, delay, unit);
+    }
+
+    private void submit(int home, Thread.VirtualThreadTask task) {
+        ForkJoinPool pool = pools[home];
+        if (pools.length > 1 && isSaturated(pool)) {
+            int target = idlestNode(home);
+            if (target >= 0) {
+                pool = pools[target];
+            }
+        }
+        // 在本节点 carrier 上提交时 FJP 会压入当前 worker 的本地队列
+        pool.execute(TimeSlice.withMountHook(task));
+    }
+
+    private boolean isSaturated(ForkJoinPool pool) {
+        // 在 carrier 上提交的任务进的是 worker 本地队列 不计入 submission 队列
+        return pool.getActiveThreadCount() >= pool.getParallelism()
+                && pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount() > spillThreshold;
+    }
+
+    private int idlestNode(int exclude) {
+        int best = -1;
+        int bestIdle = 0;
+        for (int i = 0; i < pools.length; i++) {
+            if (i == exclude) {
+                continue;
+            }
+            int idle = pools[i].getParallelism() - pools[i].getActiveThreadCount();
+            if (idle > bestIdle) {
+                best = i;
+                bestIdle = idle;
+            }
+        }
+        return best;
+    }
+
+    private int currentNode() {
+        Thread current = Thread.currentThread();
+        Thread carrier = current.isVirtual() ? LoomSecretHelper.getCurrentCarrierThread() : current;
+        return carrier instanceof NodeCarrierThread nodeCarrier && nodeCarrier.owner == this ? nodeCarrier.node : -1;
+    }
+
+    private static final class NodeCarrierThread extends ForkJoinWorkerThread {
+        private final NumaAwareScheduler owner;
+        private final int node;
+        private final CpuAffinity cpus;
+
+        private NodeCarrierThread(ForkJoinPool pool, NumaAwareScheduler owner, int node, CpuAffinity cpus, int index) {
+            super(pool);
+            this.owner = owner;
+            this.node = node;
+            this.cpus = cpus;
+            setName("NumaCarrier-node" + node + "-" + index);
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            if (!CpuAffinity.isSupported()) {
+                return;
+            }
+            try {
+                cpus.applyToCurrentThread("numa-node" + node);
+            } catch (RuntimeException e) {
+                // 例如 cgroup cpuset 不包含该节点的 CPU 时 仍然保留分组 只是不绑核
+                System.err.println("[NumaAwareScheduler] failed to pin " + getName() + " to " + cpus + ": " + e.getMessage());
+            }
+        }
+    }
+}
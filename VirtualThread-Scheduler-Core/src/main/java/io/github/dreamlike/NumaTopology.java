@@ -0,0 +1,124 @@
+package io.github.dreamlike;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * NUMA node → CPU set mapping, read from {@code /sys/devices/system/node} or simulated.
+ * <p>
+ * The simulated mode ({@value #SIMULATE_PROPERTY}{@code =N}) splits the CPUs of the current process
+ * into {@code N} contiguous groups so NUMA-aware scheduling can be exercised on single-node machines.
+ */
+public record NumaTopology(List<Node> nodes, boolean simulated) {
+
+    public static final String SIMULATE_PROPERTY = "jdk.virtualThreadScheduler.numa.simulate";
+    private static final Path SYSFS_NODE_ROOT = Path.of("/sys/devices/system/node");
+    private static final Pattern NODE_DIR = Pattern.compile("node(\\d+)");
+
+    public NumaTopology {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("topology must have at least one node");
+        }
+        nodes = List.copyOf(nodes);
+    }
+
+    /**
+     * Simulated topology if {@value #SIMULATE_PROPERTY} is set, otherwise the detected one.
+     */
+    public static NumaTopology fromSystem() {
+        String simulate = System.getProperty(SIMULATE_PROPERTY);
+        if (simulate != null && !simulate.isBlank()) {
+            return simulated(Integer.parseInt(simulate.trim()));
+        }
+        return detect();
+    }
+
+    /**
+     * Reads the real topology; falls back to a single node holding every CPU when sysfs is unavailable.
+     */
+    public static NumaTopology detect() {
+        if (Files.isDirectory(SYSFS_NODE_ROOT)) {
+            List<Node> nodes = readNodes(SYSFS_NODE_ROOT);
+            if (!nodes.isEmpty()) {
+                return new NumaTopology(nodes, false);
+            }
+        }
+        return new NumaTopology(List.of(new Node(0, allCpus())), false);
+    }
+
+    /**
+     * Topology made of {@link #readNodes}.
+     *
+     * @throws IllegalArgumentException if {@code root} has no node with CPUs
+     */
+    public static NumaTopology read(Path root) {
+        return new NumaTopology(readNodes(root), false);
+    }
+
+    /**
+     * Reads every {@code nodeN/cpulist} under {@code root}; nodes without CPUs (memory-only) are skipped.
+     *
+     * @return the nodes sorted by id, possibly empty
+     */
+    public static List<Node> readNodes(Path root) {
+        List<Node> nodes = new ArrayList<>();
+        try (Stream<Path> children = Files.list(root)) {
+            for (Path child : children.toList()) {
+                Matcher matcher = NODE_DIR.matcher(child.getFileName().toString());
+                Path cpuList = child.resolve("cpulist");
+                if (!matcher.matches() || !Files.isReadable(cpuList)) {
+                    continue;
+                }
+                String cpus = Files.readString(cpuList).trim();
+                if (!cpus.isEmpty()) {
+                    nodes.add(new Node(Integer.parseInt(matcher.group(1)), CpuAffinity.parse(cpus)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        nodes.sort(Comparator.comparingInt(Node::id));
+        return nodes;
+    }
+
+    public static NumaTopology simulated(int nodeCount) {
+        if (nodeCount <= 0) {
+            throw new IllegalArgumentException("nodeCount must be positive");
+        }
+        int[] cpus = allCpus().cpus().stream().toArray();
+        int count = Math.min(nodeCount, cpus.length);
+        List<Node> nodes = new ArrayList<>(count);
+        for (int node = 0; node < count; node++) {
+            BitSet nodeCpus = new BitSet();
+            for (int i = node * cpus.length / count; i < (node + 1) * cpus.length / count; i++) {
+                nodeCpus.set(cpus[i]);
+            }
+            nodes.add(new Node(node, CpuAffinity.of(nodeCpus)));
+        }
+        return new NumaTopology(nodes, true);
+    }
+
+    private static CpuAffinity allCpus() {
+        if (CpuAffinity.isSupported()) {
+            return CpuAffinity.ofCurrentThread();
+        }
+        BitSet cpus = new BitSet();
+        cpus.set(0, Runtime.getRuntime().availableProcessors());
+        return CpuAffinity.of(cpus);
+    }
+
+    public record Node(int id, CpuAffinity cpus) {
+        public int cpuCount() {
+            return cpus.cpus().cardinality();
+        }
+    }
+}
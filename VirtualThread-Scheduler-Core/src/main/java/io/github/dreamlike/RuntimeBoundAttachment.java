@@ -0,0 +1,14 @@
+package io.github.dreamlike;
+
+/**
+ * Task attachment that remembers which runtime owns the virtual thread.
+ * <p>
+ * {@link VirtualThreadRuntimeRouter} attaches one to every virtual thread it routes and sends each
+ * {@code onContinue} to {@link #runtime()}. A runtime that replaces the attachment with its own object must
+ * let that object implement this interface, otherwise the continuations of its threads fall back to the
+ * router's primary runtime.
+ */
+public interface RuntimeBoundAttachment {
+
+    VirtualThreadRuntime runtime();
+}
@@ -0,0 +1,164 @@
+package io.github.dreamlike;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+/**
+ * Cooperative time slicing for CPU-bound virtual threads.
+ * <p>
+ * With {@value #PACKAGES_PROPERTY} set, the agent inserts a call to {@link #poll()} at every method entry and
+ * loop back-edge of the classes in those packages. A poll on a platform thread returns at once. On a virtual
+ * thread it decrements a countdown, and every {@value #CHECK_EVERY} polls compares the clock with the start of
+ * the current slice: once the virtual thread has run for longer than the quantum ({@value #QUANTUM_PROPERTY},
+ * default 10ms) it calls {@link Thread#yield()}, unless the continuation is pinned (monitor, native frame or
+ * {@link LoomSecretHelper#pinContinuation()}).
+ * <p>
+ * A slice starts when the virtual thread is mounted: runtimes call {@link #mounting} on the carrier right before
+ * running a continuation, so time spent unmounted never counts and a slow loop body cannot keep restarting the
+ * slice. When the task attachment is a {@link Holder} the slice lives there and a poll costs a couple of field
+ * reads; otherwise it falls back to a per-carrier slice. A mount that bypasses {@link #mounting} can at worst
+ * yield once early, never miss a preemption.
+ */
+public final class TimeSlice {
+
+    public static final String PACKAGES_PROPERTY = "jdk.virtualThreadScheduler.timeSlice.packages";
+    public static final String QUANTUM_PROPERTY = "jdk.virtualThreadScheduler.timeSlice.quantumMicros";
+    private static final int CHECK_EVERY = 256;
+    private static final long QUANTUM_NANOS = Long.getLong(QUANTUM_PROPERTY, 10_000) * 1000;
+    // agent 把 jdk.virtualThreadScheduler.* 参数导出为系统属性
+    private static final boolean ENABLED = !System.getProperty(PACKAGES_PROPERTY, "").isBlank();
+    private static final ThreadLocal<Slice> SLICES = LoomSecretHelper.newCarrierThreadLocal();
+    private static final MethodHandle IS_PINNED;
+
+    static {
+        try {
+            var lookup = LoomSecretHelper.LOOKUP;
+            Class<?> scopeClass = Class.forName("jdk.internal.vm.ContinuationScope", true, null);
+            Class<?> continuation = Class.forName("jdk.internal.vm.Continuation", true, null);
+            Class<?> vtClass = Class.forName("java.lang.VirtualThread", true, null);
+            Object scope = lookup.findStaticGetter(vtClass, "VTHREAD_SCOPE", scopeClass).invoke();
+            IS_PINNED = lookup.findStatic(continuation, "isPinned", MethodType.methodType(boolean.class, scopeClass))
+                    .bindTo(scope);
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed to resolve handles for TimeSlice", e);
+        }
+    }
+
+    private TimeSlice() {
+    }
+
+    /**
+     * Whether the agent was asked to insert yield points; runtimes only need to call {@link #mounting} then.
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Starts a new slice for {@code task}. Must be called on the carrier, right before {@code task.run()}.
+     */
+    public static void mounting(Thread.VirtualThreadTask task) {
+        if (!ENABLED) {
+            return;
+        }
+        if (task.attachment() instanceof Holder holder) {
+            holder.timeSlice().restart(System.nanoTime());
+            return;
+        }
+        Slice slice = SLICES.get();
+        if (slice != null) {
+            // 下一次 poll 时由挂载上来的虚拟线程重新开始计时
+            slice.owner = null;
+        }
+    }
+
+    /**
+     * {@code task} itself when time slicing is off, otherwise a runnable that calls {@link #mounting} first.
+     * For schedulers that hand the task to an executor as a plain runnable.
+     */
+    public static Runnable withMountHook(Thread.VirtualThreadTask task) {
+        if (!ENABLED) {
+            return task;
+        }
+        return () -> {
+            mounting(task);
+            task.run();
+        };
+    }
+
+    /**
+     * Yield point inserted by the agent.
+     */
+    public static void poll() {
+        Thread current = Thread.currentThread();
+        if (!current.isVirtual()) {
+            return;
+        }
+        Slice slice;
+        boolean carrierSlice = false;
+        if (LoomSecretHelper.getCurrentTask().attachment() instanceof Holder holder) {
+            slice = holder.timeSlice();
+        } else {
+            carrierSlice = true;
+            slice = SLICES.get();
+            if (slice == null) {
+                slice = new Slice();
+                SLICES.set(slice);
+            }
+            if (slice.owner != current) {
+                slice.owner = current;
+                slice.restart(System.nanoTime());
+                return;
+            }
+        }
+        if (--slice.countdown > 0) {
+            return;
+        }
+        slice.countdown = CHECK_EVERY;
+        if (System.nanoTime() - slice.start < QUANTUM_NANOS || isPinned()) {
+            return;
+        }
+        // yield 之后可能在别的 carrier 上继续 原 carrier 的 slice 交给下一个虚拟线程
+        slice.owner = null;
+        Thread.yield();
+        if (!carrierSlice) {
+            // 挂载路径没有经过 mounting 时也从这里重新计时
+            slice.restart(System.nanoTime());
+        }
+    }
+
+    private static boolean isPinned() {
+        try {
+            return (boolean) IS_PINNED.invokeExact();
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Task attachment that carries the time slice of its virtual thread, so {@link #poll()} does not need a
+     * carrier-local lookup. The attachment must belong to a single virtual thread.
+     */
+    public interface Holder {
+        Slice timeSlice();
+    }
+
+    /**
+     * Slice state of one virtual thread (or, as a fallback, one carrier). Only touched by the thread it belongs to
+     * and by {@link #mounting} right before that thread is mounted.
+     */
+    public static final class Slice {
+        private Thread owner;
+        private long start;
+        private int countdown = CHECK_EVERY;
+
+        public Slice() {
+            start = System.nanoTime();
+        }
+
+        private void restart(long now) {
+            start = now;
+            countdown = CHECK_EVERY;
+        }
+    }
+}
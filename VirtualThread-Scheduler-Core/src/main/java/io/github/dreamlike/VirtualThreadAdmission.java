@@ -0,0 +1,47 @@
+package io.github.dreamlike;
+
+import java.util.function.Consumer;
+
+/**
+ * Admission control consulted by the runtime's {@code onStart} before a virtual thread is handed to
+ * its executor.
+ * <p>
+ * A start is bound to an admission via {@link #start}; this interface does not depend on the agent, so
+ * callers such as {@link VirtualThreadConcurrencyLimiter} also load and work without it (the admission is
+ * then simply never consulted).
+ * When {@link #deferStart} returns {@code true} the virtual thread stays a not-yet-started
+ * {@link Thread.VirtualThreadTask} — no stack chunk has been allocated for it yet — and the admission
+ * owns it until it calls {@code resume.accept(task)} exactly once, from any thread, which submits the
+ * task exactly as {@code onStart} would have done.
+ */
+@FunctionalInterface
+public interface VirtualThreadAdmission {
+
+    /**
+     * @param task      the virtual thread being started
+     * @param scheduler the runtime performing the start, e.g. for {@code schedule}-based deferral
+     * @param resume    submits the task; must be invoked exactly once iff this method returns {@code true}
+     * @return {@code true} if the start was deferred, {@code false} to submit it right away
+     */
+    boolean deferStart(Thread.VirtualThreadTask task,
+                       Thread.VirtualThreadScheduler scheduler,
+                       Consumer<Thread.VirtualThreadTask> resume);
+
+    /**
+     * Starts {@code thread} with {@code admission} bound for the duration of {@link Thread#start()}.
+     * <p>
+     * {@code onStart} runs synchronously on the starting thread, and plain virtual threads do not inherit
+     * scoped values, so the binding is visible to exactly this start. Without the agent installed the
+     * admission is never consulted; callers must tolerate that.
+     */
+    static void start(Thread thread, VirtualThreadAdmission admission) {
+        ScopedValue.where(AdmissionBinding.CURRENT, admission).run(thread::start);
+    }
+
+    /**
+     * The admission bound by {@link #start} on the current thread, or {@code null}.
+     */
+    static VirtualThreadAdmission current() {
+        return AdmissionBinding.CURRENT.orElse(null);
+    }
+}
@@ -0,0 +1,439 @@
+package io.github.dreamlike;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Channel between virtual threads, bounded ({@link #bounded}, capacity {@code 0} is a rendezvous channel like
+ * {@link java.util.concurrent.SynchronousQueue}) or unbounded ({@link #unbounded}).
+ * <p>
+ * The fast paths are lock-free: a send into a channel with room and a receive from a non-empty channel only
+ * touch a {@link ConcurrentLinkedQueue} (and, when bounded, a size counter). Only parking and waking go
+ * through a lock. A send that finds a parked receiver hands the value over directly — it never enters the
+ * buffer — and unparks the receiver, which the runtime schedules through {@code onContinue}: on its own context
+ * executor, and with an {@code EventLoopExecutor} in that executor's run-next slot, i.e. right after the sender
+ * on the same carrier.
+ * <p>
+ * Values must not be {@code null}. After {@link #close()} sends fail with {@link IllegalStateException} and
+ * receives drain the remaining values, then return {@code null}.
+ */
+public final class VirtualThreadChannel<T> implements AutoCloseable {
+
+    private final int capacity;
+    private final ConcurrentLinkedQueue<T> buffer = new ConcurrentLinkedQueue<>();
+    // 已占用的容量 只有有界 channel 使用
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    // 以下受 lock 保护 计数器是 volatile 的 供无锁快路径判断是否需要加锁唤醒
+    private final ArrayDeque<Waiter<T>> receivers = new ArrayDeque<>();
+    private final ArrayDeque<Waiter<T>> senders = new ArrayDeque<>();
+    private volatile int waitingReceivers;
+    private volatile int waitingSenders;
+    private volatile boolean closed;
+
+    private VirtualThreadChannel(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public static <T> VirtualThreadChannel<T> bounded(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        return new VirtualThreadChannel<>(capacity);
+    }
+
+    public static <T> VirtualThreadChannel<T> unbounded() {
+        return new VirtualThreadChannel<>(Integer.MAX_VALUE);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of buffered values, not counting values handed over directly.
+     */
+    public int size() {
+        return buffer.size();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sends {@code value}, waiting while a bounded channel is full.
+     *
+     * @throws IllegalStateException if the channel is closed
+     */
+    public void send(T value) throws InterruptedException {
+        Objects.requireNonNull(value, "value");
+        if (!trySendFast(value)) {
+            sendSlow(value, false, 0);
+        }
+    }
+
+    /**
+     * Sends {@code value} if that is possible without waiting.
+     */
+    public boolean trySend(T value) {
+        Objects.requireNonNull(value, "value");
+        return trySendFast(value);
+    }
+
+    /**
+     * Sends {@code value}, waiting up to {@code timeout} for room.
+     *
+     * @return {@code false} on timeout
+     */
+    public boolean send(T value, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(value, "value");
+        return trySendFast(value) || sendSlow(value, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Sends every value in order: first directly to parked receivers, then into the buffer, waiting for room
+     * when bounded. Receivers parked for the buffered values are woken once at the end.
+     */
+    public void sendAll(Collection<? extends T> values) throws InterruptedException {
+        ensureOpen();
+        var iterator = values.iterator();
+        if (waitingReceivers > 0 && iterator.hasNext()) {
+            lock.lock();
+            try {
+                Waiter<T> receiver;
+                while (iterator.hasNext() && (receiver = receivers.peek()) != null) {
+                    receivers.poll();
+                    waitingReceivers--;
+                    receiver.complete(Objects.requireNonNull(iterator.next(), "value"));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        while (iterator.hasNext()) {
+            T value = Objects.requireNonNull(iterator.next(), "value");
+            if (tryReserve()) {
+                buffer.offer(value);
+            } else {
+                sendSlow(value, false, 0);
+            }
+        }
+        if (waitingReceivers > 0) {
+            drainToReceivers();
+        }
+    }
+
+    /**
+     * Receives a value, waiting while the channel is empty.
+     *
+     * @return the value, or {@code null} once the channel is closed and drained
+     */
+    public T receive() throws InterruptedException {
+        T value = tryReceive();
+        return value != null ? value : receiveSlow(false, 0);
+    }
+
+    /**
+     * Receives a value, waiting up to {@code timeout}.
+     *
+     * @return the value, or {@code null} on timeout or once the channel is closed and drained
+     */
+    public T receive(long timeout, TimeUnit unit) throws InterruptedException {
+        T value = tryReceive();
+        return value != null ? value : receiveSlow(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Receives a buffered value without waiting, or returns {@code null}.
+     */
+    public T tryReceive() {
+        T value = buffer.poll();
+        if (value != null) {
+            release(1);
+        }
+        return value;
+    }
+
+    /**
+     * Waits for at least one value, then moves up to {@code max} values into {@code sink} without waiting
+     * further.
+     *
+     * @return the number of values moved, {@code 0} once the channel is closed and drained
+     */
+    public int receiveAll(Collection<? super T> sink, int max) throws InterruptedException {
+        if (max <= 0) {
+            return 0;
+        }
+        T first = receive();
+        if (first == null) {
+            return 0;
+        }
+        sink.add(first);
+        int count = 1;
+        T value;
+        while (count < max && (value = buffer.poll()) != null) {
+            sink.add(value);
+            count++;
+        }
+        if (count > 1) {
+            release(count - 1);
+        }
+        return count;
+    }
+
+    /**
+     * Closes the channel and wakes every parked sender and receiver. Buffered values stay receivable.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Waiter<T> waiter;
+            while ((waiter = receivers.poll()) != null) {
+                waiter.complete(null);
+            }
+            while ((waiter = senders.poll()) != null) {
+                waiter.complete(null);
+            }
+            waitingReceivers = 0;
+            waitingSenders = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean trySendFast(T value) {
+        if (closed) {
+            throw new IllegalStateException("channel closed");
+        }
+        if (waitingReceivers > 0 && handOff(value)) {
+            return true;
+        }
+        if (!tryReserve()) {
+            return false;
+        }
+        buffer.offer(value);
+        // 与 receiveSlow 的 waitingReceivers++ 再 poll 构成 Dekker 式握手 双方至少有一方能看到对方
+        if (waitingReceivers > 0) {
+            drainToReceivers();
+        }
+        return true;
+    }
+
+    private boolean handOff(T value) {
+        lock.lock();
+        try {
+            Waiter<T> receiver = receivers.poll();
+            if (receiver == null) {
+                return false;
+            }
+            waitingReceivers--;
+            receiver.complete(value);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 值进入缓冲区之后才出现的接收者 由这里把缓冲区里的值交给它们
+    private void drainToReceivers() {
+        int moved = 0;
+        lock.lock();
+        try {
+            while (!receivers.isEmpty()) {
+                T value = buffer.poll();
+                if (value == null) {
+                    break;
+                }
+                waitingReceivers--;
+                receivers.poll().complete(value);
+                moved++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (moved > 0) {
+            release(moved);
+        }
+    }
+
+    private boolean sendSlow(T value, boolean timed, long deadline) throws InterruptedException {
+        while (true) {
+            Waiter<T> waiter;
+            lock.lock();
+            try {
+                ensureOpen();
+                Waiter<T> receiver = receivers.poll();
+                if (receiver != null) {
+                    waitingReceivers--;
+                    receiver.complete(value);
+                    return true;
+                }
+                waitingSenders++;
+                // 先登记再检查容量 与 release 的先释放再检查 waitingSenders 对应
+                if (tryReserve()) {
+                    waitingSenders--;
+                    buffer.offer(value);
+                    return true;
+                }
+                waiter = new Waiter<>();
+                senders.add(waiter);
+            } finally {
+                lock.unlock();
+            }
+            if (!await(waiter, senders, timed, deadline, true)) {
+                return false;
+            }
+            // 被 release 或者新来的接收者唤醒 重新尝试
+        }
+    }
+
+    private T receiveSlow(boolean timed, long deadline) throws InterruptedException {
+        while (true) {
+            Waiter<T> waiter = null;
+            T value;
+            lock.lock();
+            try {
+                waitingReceivers++;
+                // 先登记再检查缓冲区 与 trySendFast 的先入队再检查 waitingReceivers 对应
+                value = buffer.poll();
+                if (value != null || closed) {
+                    waitingReceivers--;
+                } else {
+                    waiter = new Waiter<>();
+                    receivers.add(waiter);
+                    // 容量为 0 或者已满时 等待中的发送者只有看到接收者才能继续
+                    Waiter<T> sender = senders.poll();
+                    if (sender != null) {
+                        waitingSenders--;
+                        sender.complete(null);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (waiter == null) {
+                if (value != null) {
+                    release(1);
+                }
+                return value;
+            }
+            if (!await(waiter, receivers, timed, deadline, false)) {
+                return null;
+            }
+            if (waiter.item != null) {
+                return waiter.item;
+            }
+            // 因 close 被唤醒 剩余的值仍可接收
+            value = tryReceive();
+            if (value != null || closed) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Parks until {@code waiter} completes; on timeout or interrupt removes it from {@code queue}.
+     *
+     * @return {@code false} on timeout
+     */
+    private boolean await(Waiter<T> waiter, ArrayDeque<Waiter<T>> queue, boolean timed, long deadline, boolean sender)
+            throws InterruptedException {
+        while (!waiter.done) {
+            boolean interrupted = Thread.interrupted();
+            long nanos = timed ? deadline - System.nanoTime() : 0;
+            if (interrupted || (timed && nanos <= 0)) {
+                lock.lock();
+                try {
+                    if (queue.remove(waiter)) {
+                        if (sender) {
+                            waitingSenders--;
+                        } else {
+                            waitingReceivers--;
+                        }
+                        if (interrupted) {
+                            throw new InterruptedException();
+                        }
+                        return false;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                // 已经被完成 保留中断状态 交给调用者
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+            if (timed) {
+                LockSupport.parkNanos(this, nanos);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        return true;
+    }
+
+    private boolean tryReserve() {
+        if (capacity == Integer.MAX_VALUE) {
+            return true;
+        }
+        int current;
+        do {
+            current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void release(int count) {
+        if (capacity == Integer.MAX_VALUE) {
+            return;
+        }
+        size.addAndGet(-count);
+        if (waitingSenders > 0) {
+            lock.lock();
+            try {
+                Waiter<T> sender = senders.poll();
+                if (sender != null) {
+                    waitingSenders--;
+                    sender.complete(null);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("channel closed");
+        }
+    }
+
+    private static final class Waiter<T> {
+        private final Thread thread = Thread.currentThread();
+        // 在 done 之前写入 由 done 的 volatile 写发布
+        private T item;
+        private volatile boolean done;
+
+        private void complete(T value) {
+            item = value;
+            done = true;
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -1,41 +1,113 @@
 package io.github.dreamlike;
 
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 // 缺少maxWait策略只作为展示
-// 如果不考虑ThreadFactory功能 完全可以使用有界线程池直接替代
-public class VirtualThreadConcurrencyLimiter implements Executor,ThreadFactory  {
+// 超出并发上限的虚拟线程在 runtime 的 onStart 处被拦下 以尚未启动(没有栈)的 VirtualThreadTask 形式排队
+// 有许可释放时再直接投递给其原本的执行器 积压时内存只与排队的任务数量相关 而不是与挂起的虚拟线程数量相关
+// 未安装 agent 时 onStart 不会经过准入控制 此时退化为在虚拟线程内部阻塞获取许可
+public class VirtualThreadConcurrencyLimiter implements Executor, ThreadFactory {
 
     private final int maxConcurrency;
     private final Semaphore semaphore;
-    private final Executor internelExecutor;
+    private final ConcurrentLinkedQueue<PendingStart> pendingStarts = new ConcurrentLinkedQueue<>();
+
     public VirtualThreadConcurrencyLimiter(int maxConcurrency) {
         this.maxConcurrency = maxConcurrency;
         this.semaphore = new Semaphore(maxConcurrency);
-        this.internelExecutor = Executors.newFixedThreadPool(maxConcurrency, Thread.ofVirtual().factory());
     }
 
     @Override
     public void execute(Runnable command) {
-        internelExecutor.execute(() -> {
-            semaphore.acquireUninterruptibly();
-            try {
-                command.run();
-            } finally {
-                semaphore.release();
-            }
-        });
+        newThread(command);
     }
 
     @Override
     public Thread newThread(Runnable r) {
-        return Thread.startVirtualThread(() -> {
-            semaphore.acquireUninterruptibly();
+        LimitedTask limitedTask = new LimitedTask(r);
+        Thread thread = Thread.ofVirtual().unstarted(limitedTask);
+        limitedTask.thread = thread;
+        VirtualThreadAdmission.start(thread, limitedTask);
+        return thread;
+    }
+
+    public int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Number of virtual threads held back by admission control, i.e. started but not yet submitted.
+     */
+    public int pendingStarts() {
+        return pendingStarts.size();
+    }
+
+    private void release() {
+        PendingStart next = pendingStarts.poll();
+        if (next != null) {
+            // 许可直接移交给排队的任务 不经过 semaphore
+            next.resume();
+            return;
+        }
+        semaphore.release();
+        drain();
+    }
+
+    // 入队与释放并发时 双方都会走到这里 保证不会出现"有空闲许可但任务仍在排队"
+    private void drain() {
+        while (!pendingStarts.isEmpty() && semaphore.tryAcquire()) {
+            PendingStart next = pendingStarts.poll();
+            if (next == null) {
+                semaphore.release();
+                return;
+            }
+            next.resume();
+        }
+    }
+
+    private record PendingStart(Thread.VirtualThreadTask task, Consumer<Thread.VirtualThreadTask> resume) {
+        private void resume() {
+            resume.accept(task);
+        }
+    }
+
+    private final class LimitedTask implements Runnable, VirtualThreadAdmission {
+        private final Runnable command;
+        private Thread thread;
+        // 由 onStart 在投递之前写入 投递本身保证了 run() 中的可见性
+        private boolean admitted;
+
+        private LimitedTask(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public boolean deferStart(Thread.VirtualThreadTask task,
+                                  Thread.VirtualThreadScheduler scheduler,
+                                  Consumer<Thread.VirtualThreadTask> resume) {
+            if (task.thread() != thread) {
+                return false;
+            }
+            admitted = true;
+            if (semaphore.tryAcquire()) {
+                return false;
+            }
+            pendingStarts.add(new PendingStart(task, resume));
+            drain();
+            return true;
+        }
+
+        @Override
+        public void run() {
+            if (!admitted) {
+                semaphore.acquireUninterruptibly();
+            }
             try {
-                r.run();
+                command.run();
             } finally {
-                semaphore.release();
+                release();
             }
-        });
+        }
     }
 }
@@ -0,0 +1,319 @@
+package io.github.dreamlike;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded-concurrency map / forEach over virtual threads, and multi-stage pipelines built from them.
+ * <p>
+ * Each stage runs on exactly {@code parallelism} worker virtual threads, so at most that many items are in flight
+ * per stage. Stages are connected by bounded {@link VirtualThreadChannel}s: a slow stage parks its upstream instead
+ * of letting items pile up. Workers are plain virtual threads started from the calling thread, so with a runtime
+ * that propagates its dispatcher context on start they run on the caller's executor.
+ * <p>
+ * The first failure, from a stage or from the terminal action, cancels the run: no further items are taken, every
+ * worker is interrupted, and the terminal operation throws {@link ExecutionException} with that failure as its
+ * cause once all workers have exited.
+ * <pre>{@code
+ * List<Response> responses = VirtualThreadParallel.map(requests, 16, client::call);
+ *
+ * VirtualThreadParallel.pipeline(paths)
+ *         .map(4, Files::readString)
+ *         .mapUnordered(8, this::parse)
+ *         .forEach(this::store);
+ * }</pre>
+ */
+public final class VirtualThreadParallel {
+
+    private VirtualThreadParallel() {
+    }
+
+    @FunctionalInterface
+    public interface Mapper<T, R> {
+        R apply(T item) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Action<T> {
+        void accept(T item) throws Exception;
+    }
+
+    /**
+     * Maps {@code items} with at most {@code parallelism} calls in flight; results keep the input order.
+     */
+    public static <T, R> List<R> map(Iterable<? extends T> items, int parallelism, Mapper<? super T, ? extends R> mapper)
+            throws InterruptedException, ExecutionException {
+        return pipeline(items).<R>map(parallelism, mapper).toList();
+    }
+
+    /**
+     * Like {@link #map} but results are in completion order, so a slow item does not hold back the others.
+     */
+    public static <T, R> List<R> mapUnordered(Iterable<? extends T> items, int parallelism, Mapper<? super T, ? extends R> mapper)
+            throws InterruptedException, ExecutionException {
+        return pipeline(items).<R>mapUnordered(parallelism, mapper).toList();
+    }
+
+    /**
+     * Runs {@code action} for every item with at most {@code parallelism} calls in flight.
+     */
+    public static <T> void forEach(Iterable<? extends T> items, int parallelism, Action<? super T> action)
+            throws InterruptedException, ExecutionException {
+        pipeline(items).mapUnordered(parallelism, item -> {
+            action.accept(item);
+            return null;
+        }).forEach(_ -> {
+        });
+    }
+
+    public static <T> Pipeline<T> pipeline(Iterable<? extends T> source) {
+        return new Pipeline<>(Objects.requireNonNull(source, "source"), List.of());
+    }
+
+    /**
+     * Immutable description of a pipeline; nothing runs until a terminal operation ({@link #forEach}, {@link #toList})
+     * is called, and every terminal call runs the pipeline again from the source.
+     */
+    public static final class Pipeline<T> {
+        private final Iterable<?> source;
+        private final List<Stage> stages;
+
+        private Pipeline(Iterable<?> source, List<Stage> stages) {
+            this.source = source;
+            this.stages = stages;
+        }
+
+        /**
+         * Adds a stage whose results are emitted in the order of its input.
+         */
+        public <R> Pipeline<R> map(int parallelism, Mapper<? super T, ? extends R> mapper) {
+            return then(parallelism, true, mapper);
+        }
+
+        /**
+         * Adds a stage whose results are emitted as soon as they are ready.
+         */
+        public <R> Pipeline<R> mapUnordered(int parallelism, Mapper<? super T, ? extends R> mapper) {
+            return then(parallelism, false, mapper);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <R> Pipeline<R> then(int parallelism, boolean ordered, Mapper<? super T, ? extends R> mapper) {
+            if (parallelism <= 0) {
+                throw new IllegalArgumentException("parallelism must be positive");
+            }
+            Objects.requireNonNull(mapper, "mapper");
+            List<Stage> next = new ArrayList<>(stages);
+            next.add(new Stage(parallelism, ordered, (Mapper<Object, Object>) mapper));
+            return new Pipeline<>(source, List.copyOf(next));
+        }
+
+        /**
+         * Runs the pipeline, calling {@code action} on the calling thread for every result in emission order.
+         */
+        @SuppressWarnings("unchecked")
+        public void forEach(Action<? super T> action) throws InterruptedException, ExecutionException {
+            Objects.requireNonNull(action, "action");
+            Run run = new Run();
+            VirtualThreadChannel<Item> results = run.start(source, stages);
+            try {
+                Item item;
+                while (!run.cancelled() && (item = results.receive()) != null) {
+                    try {
+                        action.accept((T) item.value());
+                    } catch (Throwable t) {
+                        run.fail(t);
+                    }
+                }
+            } catch (InterruptedException e) {
+                run.cancel();
+                throw e;
+            }
+            run.join();
+        }
+
+        public List<T> toList() throws InterruptedException, ExecutionException {
+            List<T> list = new ArrayList<>();
+            forEach(list::add);
+            return list;
+        }
+    }
+
+    private record Stage(int parallelism, boolean ordered, Mapper<Object, Object> mapper) {
+    }
+
+    // 值可以是 null 序号由上游按发出顺序分配 保证连续 有序阶段按序号重新排队
+    private record Item(long seq, Object value) {
+    }
+
+    private static final class Run {
+        private final List<Thread> threads = new ArrayList<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean cancelled;
+
+        // 在调用者线程上启动全部虚拟线程 由 runtime 的 onStart 继承调用者的上下文
+        private VirtualThreadChannel<Item> start(Iterable<?> source, List<Stage> stages) {
+            VirtualThreadChannel<Item> in = VirtualThreadChannel.bounded(stages.isEmpty() ? 1 : stages.getFirst().parallelism());
+            VirtualThreadChannel<Item> first = in;
+            fork("parallel-source", () -> {
+                try {
+                    long seq = 0;
+                    for (Object value : source) {
+                        if (cancelled) {
+                            return;
+                        }
+                        first.send(new Item(seq++, value));
+                    }
+                } finally {
+                    first.close();
+                }
+            });
+            for (int i = 0; i < stages.size(); i++) {
+                Stage stage = stages.get(i);
+                VirtualThreadChannel<Item> out = VirtualThreadChannel.bounded(stage.parallelism());
+                StageWorker worker = new StageWorker(this, stage, in, out);
+                for (int w = 0; w < stage.parallelism(); w++) {
+                    fork("parallel-stage-" + i + "-" + w, worker::run);
+                }
+                in = out;
+            }
+            return in;
+        }
+
+        private void fork(String name, Body body) {
+            Thread thread = Thread.ofVirtual().name(name).unstarted(() -> {
+                try {
+                    body.run();
+                } catch (InterruptedException e) {
+                    // 被 cancel 打断的不算失败
+                    if (!cancelled) {
+                        fail(e);
+                    }
+                } catch (Throwable t) {
+                    fail(t);
+                }
+            });
+            synchronized (threads) {
+                threads.add(thread);
+                thread.start();
+                if (cancelled) {
+                    thread.interrupt();
+                }
+            }
+        }
+
+        private boolean cancelled() {
+            return cancelled;
+        }
+
+        private void fail(Throwable t) {
+            if (failure.compareAndSet(null, t)) {
+                cancel();
+            }
+        }
+
+        private void cancel() {
+            synchronized (threads) {
+                cancelled = true;
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+            }
+        }
+
+        private void join() throws InterruptedException, ExecutionException {
+            List<Thread> started;
+            synchronized (threads) {
+                started = List.copyOf(threads);
+            }
+            try {
+                for (Thread thread : started) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                cancel();
+                throw e;
+            }
+            Throwable t = failure.get();
+            if (t != null) {
+                throw new ExecutionException(t);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private static final class StageWorker {
+        private final Run run;
+        private final Stage stage;
+        private final VirtualThreadChannel<Item> in;
+        private final VirtualThreadChannel<Item> out;
+        private final AtomicInteger remaining;
+        // 受 lock 保护 无序阶段按发出顺序重新编号 有序阶段只有序号等于 nextEmit 的结果可以发出
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition turn = lock.newCondition();
+        private long nextSeq;
+        private long nextEmit;
+
+        private StageWorker(Run run, Stage stage, VirtualThreadChannel<Item> in, VirtualThreadChannel<Item> out) {
+            this.run = run;
+            this.stage = stage;
+            this.in = in;
+            this.out = out;
+            this.remaining = new AtomicInteger(stage.parallelism());
+        }
+
+        private void run() throws Exception {
+            try {
+                Item item;
+                while (!run.cancelled() && (item = in.receive()) != null) {
+                    Object result = stage.mapper().apply(item.value());
+                    if (stage.ordered()) {
+                        emitInOrder(item.seq(), result);
+                    } else {
+                        emit(result);
+                    }
+                }
+            } finally {
+                // 最后一个退出的 worker 关闭下游 下游读完剩余的结果后结束
+                if (remaining.decrementAndGet() == 0) {
+                    out.close();
+                }
+            }
+        }
+
+        private void emit(Object result) throws InterruptedException {
+            lock.lock();
+            try {
+                // 编号与入队在同一把锁内 下游按序号递增的顺序取到 有序的下游阶段才不会等一个还在 channel 里的序号
+                out.send(new Item(nextSeq++, result));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // 轮到自己之前一直等待 等待中的 worker 不再取新的输入 一个阶段在途的结果因此不超过 parallelism
+        private void emitInOrder(long seq, Object result) throws InterruptedException {
+            lock.lock();
+            try {
+                while (nextEmit != seq) {
+                    turn.await();
+                }
+                out.send(new Item(seq, result));
+                nextEmit++;
+                turn.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
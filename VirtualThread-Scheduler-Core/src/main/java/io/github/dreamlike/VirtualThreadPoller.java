@@ -1,5 +1,6 @@
 package io.github.dreamlike;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.util.function.BooleanSupplier;
 
@@ -12,6 +13,11 @@ import java.util.function.BooleanSupplier;
  */
 public interface VirtualThreadPoller {
 
+    int FILE_READ = 0;
+    int FILE_PREAD = 1;
+    int FILE_WRITE = 2;
+    int FILE_PWRITE = 3;
+
     /**
      * Parks the current thread until a file descriptor is ready for the given op.
      */
@@ -26,4 +32,18 @@ public interface VirtualThreadPoller {
      * Starts the poller group and any system-wide poller threads.
      */
     void start();
+
+    /**
+     * Performs a blocking file read or write ({@code FILE_READ}, {@code FILE_PREAD}, {@code FILE_WRITE} or
+     * {@code FILE_PWRITE}) on behalf of a virtual thread; only called when the agent routes file I/O
+     * ({@code jdk.virtualThreadScheduler.fileIo=true}).
+     * <p>
+     * The default makes the native call on the current thread, pinning its carrier.
+     *
+     * @param position the file position for the positional ops, {@code -1} otherwise
+     * @return the native result, see {@link BlockingFileIo#direct}
+     */
+    default int fileIo(int op, FileDescriptor fd, long address, int len, long position) throws IOException {
+        return BlockingFileIo.direct(op, fd, address, len, position);
+    }
 }
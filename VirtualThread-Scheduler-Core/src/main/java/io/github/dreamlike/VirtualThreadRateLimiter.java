@@ -0,0 +1,239 @@
+package io.github.dreamlike;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Per-key rate limiter (operations per second with a burst allowance) for virtual threads — the rate
+ * counterpart of {@link KeyedVirtualThreadConcurrencyLimiter}.
+ * <p>
+ * Every key lazily gets a bucket that is a single {@link AtomicLong}: the token bucket is kept in its GCRA form
+ * (the "theoretical arrival time" of the next operation), so taking a token is one CAS and there is no refill
+ * task. Callers over the rate reserve the next free slot instead of polling for it:
+ * <ul>
+ *   <li>{@link #newThread}/{@link #execute} start through {@link VirtualThreadAdmission#start}.
+ *       A start over the rate stays a not-yet-started {@link Thread.VirtualThreadTask} — no stack — and is
+ *       resubmitted by the runtime's {@code schedule} when its slot comes up. Without the agent the start is not
+ *       deferred and the virtual thread waits for its slot before running the command instead.</li>
+ *   <li>{@link #acquire} lets a running virtual thread wait for a token: it parks with a timeout, so its
+ *       continuation is resumed by the runtime's {@code schedule} timer rather than by a sleeping thread.</li>
+ * </ul>
+ * Reservations are not refunded, so a deferred start that is abandoned still consumes its slot. Buckets whose
+ * burst has fully refilled carry no state and are dropped by {@link #evictIdle()}.
+ */
+public class VirtualThreadRateLimiter<K> {
+
+    private final long intervalNanos;
+    // 允许提前多久预支 即 (burst - 1) 个间隔
+    private final long toleranceNanos;
+    private final ConcurrentHashMap<K, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param permitsPerSecond sustained rate per key
+     * @param burst            operations a fully refilled key may run back to back
+     */
+    public VirtualThreadRateLimiter(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst must be positive");
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.toleranceNanos = intervalNanos * (burst - 1);
+    }
+
+    public void execute(K key, Runnable command) {
+        newThread(key, command);
+    }
+
+    /**
+     * Starts {@code r} on a new virtual thread once {@code key} has a token.
+     */
+    public Thread newThread(K key, Runnable r) {
+        RateLimitedTask task = new RateLimitedTask(bucketOf(Objects.requireNonNull(key, "key")), r);
+        Thread thread = Thread.ofVirtual().unstarted(task);
+        task.thread = thread;
+        VirtualThreadAdmission.start(thread, task);
+        return thread;
+    }
+
+    /**
+     * Returns a view bound to a single key, usable wherever a plain
+     * {@link Executor}/{@link ThreadFactory} is expected.
+     */
+    public KeyView forKey(K key) {
+        return new KeyView(Objects.requireNonNull(key, "key"));
+    }
+
+    /**
+     * Takes a token of {@code key}, waiting for the reserved slot if the key is over its rate.
+     * Like {@code Thread.sleep} the wait can be interrupted, but the slot stays consumed.
+     */
+    public void acquire(K key) throws InterruptedException {
+        long delay = bucketOf(Objects.requireNonNull(key, "key")).reserve();
+        if (delay > 0 && parkUntil(System.nanoTime() + delay, true)) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Takes a token of {@code key} only if one is available right now.
+     */
+    public boolean tryAcquire(K key) {
+        return bucketOf(Objects.requireNonNull(key, "key")).tryTake();
+    }
+
+    public int bucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Drops buckets whose burst has fully refilled; they hold no state a fresh bucket would not.
+     * A caller racing with the removal may reserve on the dropped bucket, which at worst grants that key
+     * one extra operation.
+     *
+     * @return number of dropped buckets
+     */
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (var entry : buckets.entrySet()) {
+            if (entry.getValue().idle(now) && buckets.remove(entry.getKey(), entry.getValue())) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private Bucket bucketOf(K key) {
+        return buckets.computeIfAbsent(key, _ -> new Bucket());
+    }
+
+    /**
+     * @return {@code true} if the wait was cut short by an interrupt; the interrupt status is cleared then,
+     * otherwise it is preserved
+     */
+    private static boolean parkUntil(long deadline, boolean interruptible) {
+        boolean interrupted = false;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                if (interruptible) {
+                    return true;
+                }
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private final class Bucket {
+        // 下一个令牌的理论发放时间 TAT 不超过 now + tolerance 即可立即放行
+        private final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+        /**
+         * Reserves the next slot.
+         *
+         * @return nanos until the slot, {@code 0} if a token was available
+         */
+        private long reserve() {
+            for (; ; ) {
+                long now = System.nanoTime();
+                long current = tat.get();
+                long start = current - now > 0 ? current : now;
+                if (tat.compareAndSet(current, start + intervalNanos)) {
+                    return Math.max(0, start - toleranceNanos - now);
+                }
+            }
+        }
+
+        private boolean tryTake() {
+            for (; ; ) {
+                long now = System.nanoTime();
+                long current = tat.get();
+                long start = current - now > 0 ? current : now;
+                if (start - toleranceNanos - now > 0) {
+                    return false;
+                }
+                if (tat.compareAndSet(current, start + intervalNanos)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean idle(long now) {
+            return tat.get() - now <= 0;
+        }
+    }
+
+    private final class RateLimitedTask implements Runnable, VirtualThreadAdmission {
+        private final Bucket bucket;
+        private final Runnable command;
+        private Thread thread;
+        // 由 onStart 在投递之前写入 投递本身保证了 run() 中的可见性
+        private boolean admitted;
+
+        private RateLimitedTask(Bucket bucket, Runnable command) {
+            this.bucket = bucket;
+            this.command = command;
+        }
+
+        @Override
+        public boolean deferStart(Thread.VirtualThreadTask task,
+                                  Thread.VirtualThreadScheduler scheduler,
+                                  Consumer<Thread.VirtualThreadTask> resume) {
+            if (task.thread() != thread) {
+                return false;
+            }
+            admitted = true;
+            long delay = bucket.reserve();
+            if (delay <= 0) {
+                return false;
+            }
+            // 到点由 runtime 的定时器重新投递 等待期间只有一个尚未分配栈的 task 和一个定时器
+            scheduler.schedule(() -> resume.accept(task), delay, TimeUnit.NANOSECONDS);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            if (!admitted) {
+                // 与 VirtualThreadConcurrencyLimiter 的退化路径一样 不响应中断
+                long delay = bucket.reserve();
+                if (delay > 0) {
+                    parkUntil(System.nanoTime() + delay, false);
+                }
+            }
+            command.run();
+        }
+    }
+
+    public final class KeyView implements Executor, ThreadFactory {
+        private final K key;
+
+        private KeyView(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            VirtualThreadRateLimiter.this.execute(key, command);
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return VirtualThreadRateLimiter.this.newThread(key, r);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package io.github.dreamlike;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runtime that hosts several {@link VirtualThreadRuntime}s in one JVM and routes each virtual thread to one
+ * of them when it starts.
+ * <p>
+ * Installed by the agent when {@code jdk.virtualThreadScheduler.poller.implClass} lists several classes
+ * separated by {@code |}; the first one is the <em>primary</em> runtime. At {@code onStart} the runtime is
+ * chosen by, in order:
+ * <ol>
+ *   <li>a {@link RuntimeBoundAttachment} already attached to the task (e.g. by a runtime's own
+ *       {@code newThread});</li>
+ *   <li>the scoped value bound by {@link #route(Class)};</li>
+ *   <li>the thread name, matched against the prefixes of {@value #NAME_RULES_PROPERTY}
+ *       ({@code prefix:className;prefix:className}, class names may be simple names);</li>
+ *   <li>the runtime of the starting virtual thread;</li>
+ *   <li>the primary runtime.</li>
+ * </ol>
+ * The choice is stored in the task attachment, so {@code onContinue}, {@code poll}, {@code schedule} and
+ * {@code fileIo} cost a single attachment read. {@link #start()} starts the primary runtime, which owns the JDK
+ * pollers (they can be started once), and runs {@link AbstractVirtualThreadRuntime#startWithoutPollers()} for
+ * the others; a runtime that does not extend {@link AbstractVirtualThreadRuntime} is not started unless it is
+ * the primary one.
+ */
+public final class VirtualThreadRuntimeRouter implements VirtualThreadRuntime {
+
+    public static final String RUNTIMES_PROPERTY = "jdk.virtualThreadScheduler.router.runtimes";
+    public static final String NAME_RULES_PROPERTY = "jdk.virtualThreadScheduler.router.names";
+
+    private static final ScopedValue<Class<?>> ROUTE = ScopedValue.newInstance();
+
+    private final VirtualThreadRuntime[] runtimes;
+    private final Route[] routes;
+    private final String[] namePrefixes;
+    private final Route[] nameRoutes;
+
+    /**
+     * Loads the runtimes listed in {@value #RUNTIMES_PROPERTY}; called by the agent's proxy.
+     */
+    public VirtualThreadRuntimeRouter() {
+        this(loadRuntimes(System.getProperty(RUNTIMES_PROPERTY)), System.getProperty(NAME_RULES_PROPERTY, ""));
+    }
+
+    public VirtualThreadRuntimeRouter(List<VirtualThreadRuntime> runtimes, String nameRules) {
+        if (runtimes.isEmpty()) {
+            throw new IllegalArgumentException("at least one runtime is required");
+        }
+        this.runtimes = runtimes.toArray(VirtualThreadRuntime[]::new);
+        this.routes = new Route[this.runtimes.length];
+        for (int i = 0; i < this.runtimes.length; i++) {
+            routes[i] = new Route(Objects.requireNonNull(this.runtimes[i], "runtime"));
+        }
+        List<String> prefixes = new ArrayList<>();
+        List<Route> targets = new ArrayList<>();
+        for (String rule : nameRules.split(";")) {
+            if (rule.isBlank()) {
+                continue;
+            }
+            int colon = rule.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("bad routing rule '" + rule + "', expected prefix:className");
+            }
+            String className = rule.substring(colon + 1).trim();
+            Route target = null;
+            for (Route route : routes) {
+                Class<?> c = route.runtime().getClass();
+                if (c.getName().equals(className) || c.getSimpleName().equals(className)) {
+                    target = route;
+                    break;
+                }
+            }
+            if (target == null) {
+                throw new IllegalArgumentException("routing rule '" + rule + "' names an unknown runtime");
+            }
+            prefixes.add(rule.substring(0, colon));
+            targets.add(target);
+        }
+        this.namePrefixes = prefixes.toArray(String[]::new);
+        this.nameRoutes = targets.toArray(Route[]::new);
+    }
+
+    /**
+     * Binds the runtime for virtual threads started inside {@code ScopedValue.Carrier#run}:
+     * <pre>
+     * VirtualThreadRuntimeRouter.route(BatchRuntime.class).run(() -> Thread.startVirtualThread(job));
+     * </pre>
+     * Threads started by those threads inherit it through rule 4. Without the router installed this has no
+     * effect.
+     */
+    public static ScopedValue.Carrier route(Class<? extends VirtualThreadRuntime> runtimeClass) {
+        return ScopedValue.where(ROUTE, Objects.requireNonNull(runtimeClass, "runtimeClass"));
+    }
+
+    /**
+     * The runtime owning the current virtual thread, or {@code null} on a platform thread or a thread this
+     * router did not route.
+     */
+    public static VirtualThreadRuntime currentRuntime() {
+        if (Thread.currentThread().isVirtual()
+                && LoomSecretHelper.getCurrentTask().attachment() instanceof RuntimeBoundAttachment bound) {
+            return bound.runtime();
+        }
+        return null;
+    }
+
+    public List<VirtualThreadRuntime> runtimes() {
+        return List.of(runtimes);
+    }
+
+    public VirtualThreadRuntime primary() {
+        return runtimes[0];
+    }
+
+    @Override
+    public void onStart(Thread.VirtualThreadTask task) {
+        VirtualThreadRuntime runtime;
+        if (task.attachment() instanceof RuntimeBoundAttachment bound) {
+            runtime = bound.runtime();
+        } else {
+            Route route = select(task.thread());
+            runtime = route.runtime();
+            if (task.attachment() == null) {
+                task.attach(route);
+            }
+        }
+        runtime.onStart(task);
+    }
+
+    @Override
+    public void onContinue(Thread.VirtualThreadTask task) {
+        runtimeOf(task.attachment()).onContinue(task);
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return currentOrPrimary().schedule(task, delay, unit);
+    }
+
+    @Override
+    public void poll(int fdVal, int event, long nanos, BooleanSupplier isOpen) throws IOException {
+        currentOrPrimary().poll(fdVal, event, nanos, isOpen);
+    }
+
+    @Override
+    public void pollSelector(int fdVal, long nanos) throws IOException {
+        currentOrPrimary().pollSelector(fdVal, nanos);
+    }
+
+    @Override
+    public int fileIo(int op, FileDescriptor fd, long address, int len, long position) throws IOException {
+        return currentOrPrimary().fileIo(op, fd, address, len, position);
+    }
+
+    @Override
+    public void start() {
+        runtimes[0].start();
+        for (int i = 1; i < runtimes.length; i++) {
+            if (runtimes[i] instanceof AbstractVirtualThreadRuntime runtime) {
+                runtime.startWithoutPollers();
+            }
+        }
+    }
+
+    private Route select(Thread thread) {
+        Class<?> bound = ROUTE.orElse(null);
+        if (bound != null) {
+            for (Route route : routes) {
+                if (bound.isInstance(route.runtime())) {
+                    return route;
+                }
+            }
+        }
+        if (namePrefixes.length > 0) {
+            String name = thread.getName();
+            for (int i = 0; i < namePrefixes.length; i++) {
+                if (name.startsWith(namePrefixes[i])) {
+                    return nameRoutes[i];
+                }
+            }
+        }
+        VirtualThreadRuntime parent = currentRuntime();
+        if (parent != null) {
+            for (Route route : routes) {
+                if (route.runtime() == parent) {
+                    return route;
+                }
+            }
+        }
+        return routes[0];
+    }
+
+    private VirtualThreadRuntime currentOrPrimary() {
+        return Thread.currentThread().isVirtual()
+                ? runtimeOf(LoomSecretHelper.getCurrentTask().attachment())
+                : runtimes[0];
+    }
+
+    private VirtualThreadRuntime runtimeOf(Object attachment) {
+        return attachment instanceof RuntimeBoundAttachment bound ? bound.runtime() : runtimes[0];
+    }
+
+    private static List<VirtualThreadRuntime> loadRuntimes(String classNames) {
+        if (classNames == null || classNames.isBlank()) {
+            throw new IllegalStateException(RUNTIMES_PROPERTY + " is not set");
+        }
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = ClassLoader.getSystemClassLoader();
+        }
+        List<VirtualThreadRuntime> runtimes = new ArrayList<>();
+        for (String className : classNames.split("\\|")) {
+            try {
+                Class<?> runtimeClass = Class.forName(className.trim(), true, loader);
+                runtimes.add((VirtualThreadRuntime) runtimeClass.getConstructor().newInstance());
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Failed to create runtime " + className, e);
+            }
+        }
+        return runtimes;
+    }
+
+    private record Route(VirtualThreadRuntime runtime) implements RuntimeBoundAttachment {
+    }
+}
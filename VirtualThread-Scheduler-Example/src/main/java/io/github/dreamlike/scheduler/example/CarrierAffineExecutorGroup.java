@@ -0,0 +1,168 @@
+package io.github.dreamlike.scheduler.example;
+
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// 一组 EventLoopExecutor 每个 worker 一个线程
+// execute 时优先投递到 perferredThread 对应的 worker 即虚拟线程上次运行的 carrier
+// 这样同一个虚拟线程的 continuation 一直在同一个核上运行 缓存保持热
+// 若该 worker 积压超过 overloadThreshold 或者 perferredThread 不属于本组 则投递到积压最少的 worker
+public final class CarrierAffineExecutorGroup implements CustomerVirtualThreadRuntime.AwareShutdownExecutor, AutoCloseable {
+
+    public static final int DEFAULT_OVERLOAD_THRESHOLD = 64;
+
+    private final EventLoopExecutor[] workers;
+    private final int overloadThreshold;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final LongAdder affinityHits = new LongAdder();
+    private final LongAdder affinityMisses = new LongAdder();
+    private final ResourceUsage usage = new ResourceUsage();
+
+    public CarrierAffineExecutorGroup(String namePrefix, int workerCount) {
+        this(namePrefix, workerCount, DEFAULT_OVERLOAD_THRESHOLD);
+    }
+
+    public CarrierAffineExecutorGroup(String namePrefix, int workerCount, int overloadThreshold) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be positive");
+        }
+        this.overloadThreshold = overloadThreshold;
+        this.workers = new EventLoopExecutor[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new EventLoopExecutor(namePrefix + "-" + i);
+        }
+    }
+
+    @Override
+    public boolean execute(Runnable runnable, Thread perferredThread) {
+        EventLoopExecutor preferred = owner(perferredThread);
+        boolean hinted = preferred != null;
+        if (!hinted) {
+            // 新启动的虚拟线程没有 carrier 提示 优先留在启动者所在的 worker 上
+            preferred = owner(EventLoopExecutor.current());
+        }
+        if (preferred != null) {
+            if (preferred.pendingTasks() <= overloadThreshold && preferred.execute(runnable, perferredThread)) {
+                if (hinted) {
+                    affinityHits.increment();
+                }
+                return true;
+            }
+            if (hinted) {
+                affinityMisses.increment();
+            }
+        }
+        EventLoopExecutor leastLoaded = leastLoaded();
+        return leastLoaded != null && leastLoaded.execute(runnable, perferredThread);
+    }
+
+    @Override
+    public long timeSliceNanos() {
+        return workers[0].timeSliceNanos();
+    }
+
+    @Override
+    public boolean owns(Thread carrier) {
+        return owner(carrier) != null;
+    }
+
+    // 虚拟线程的上下文指向的是组而不是 worker 用量记在组上
+    @Override
+    public ResourceUsage usage() {
+        return usage;
+    }
+
+    // 积压的 worker 上的投递本来就会改投其他 worker 只有全部过载时整个组才算过载
+    @Override
+    public boolean overloaded() {
+        for (EventLoopExecutor worker : workers) {
+            if (!worker.overloaded()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean supportSchedule() {
+        return !workers[0].isShutdown();
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        // 到期后 unpark 出来的 continuation 仍按 perferredThread 路由 定时器放在哪个 worker 上无关紧要
+        EventLoopExecutor current = owner(EventLoopExecutor.current());
+        EventLoopExecutor target = current != null ? current : workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+        return target.schedule(task, delay, unit);
+    }
+
+    public List<EventLoopExecutor> workers() {
+        return List.of(workers);
+    }
+
+    /**
+     * 投递到 perferredThread 对应 worker 的次数
+     */
+    public long affinityHits() {
+        return affinityHits.sum();
+    }
+
+    /**
+     * perferredThread 属于本组但其 worker 过载 改投其他 worker 的次数
+     */
+    public long affinityMisses() {
+        return affinityMisses.sum();
+    }
+
+    public void shutdown() {
+        for (EventLoopExecutor worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+        for (EventLoopExecutor worker : workers) {
+            worker.close();
+        }
+    }
+
+    private EventLoopExecutor owner(Thread thread) {
+        return thread instanceof EventLoopExecutor.EventLoopThread eventLoopThread ? owner(eventLoopThread.executor()) : null;
+    }
+
+    private EventLoopExecutor owner(EventLoopExecutor executor) {
+        if (executor == null) {
+            return null;
+        }
+        for (EventLoopExecutor worker : workers) {
+            if (worker == executor) {
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    private EventLoopExecutor leastLoaded() {
+        // 从轮转位置开始扫描 积压相同的 worker 之间不会总是选中第一个
+        int start = Math.floorMod(nextWorker.getAndIncrement(), workers.length);
+        EventLoopExecutor best = null;
+        int bestPending = Integer.MAX_VALUE;
+        for (int i = 0; i < workers.length; i++) {
+            EventLoopExecutor worker = workers[(start + i) % workers.length];
+            if (worker.isShutdown()) {
+                continue;
+            }
+            int pending = worker.pendingTasks();
+            if (pending < bestPending) {
+                best = worker;
+                bestPending = pending;
+            }
+        }
+        return best;
+    }
+}
@@ -2,10 +2,15 @@ package io.github.dreamlike.scheduler.example;
 
 import io.github.dreamlike.AbstractVirtualThreadRuntime;
 import io.github.dreamlike.LoomSecretHelper;
+import io.github.dreamlike.RuntimeBoundAttachment;
+import io.github.dreamlike.TimeSlice;
+import io.github.dreamlike.VirtualThreadRuntime;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.*;
@@ -15,17 +20,27 @@ import java.util.function.BooleanSupplier;
 
 
 // 默认继承线程
-// 1. platform -> Thread.startVirtualThread => jdkScheduler  ✅
+// 1. platform -> Thread.startVirtualThread => defaultScheduler(jdk 或 NUMA)  ✅
 // 2. platform(with propagateExecutor)/Thread.startVirtualThread -> Thread.startVirtualThread => executor ✅
 // 3. vt(with executor) -> Thread.startVirtualThread => executor ✅
 // 4. vt(with executor) -> Thread.startVirtualThread -> Thread.startVirtualThread => executor ✅
+// 5. vt/platform(with executor) -> StructuredTaskScope.fork => executor ✅ fork 在 owner 线程上 start 子任务 join 的唤醒走 owner 自己的上下文
+//    用 batchStarts 包住一组 fork 时这些子任务会一次性投递给 executor
 // 如果是来自于CustomerVirtualThreadRuntime的那么其DISPATCHER_EXECUTOR_SCOPED_VALUE肯定是有值的
 public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
 
     private static final boolean POLLER_PER_CARRIER_THREAD = Integer.parseInt(System.getProperty("jdk.pollerMode", "0")) == 3;
     private static final boolean CHECK_CARRIER_THREAD = Boolean.parseBoolean(System.getProperty("check.carrierThread", "true"));
-    private static final DispatcherContext DUMMY = new EmptyContext(null);
+    private static final DispatcherContext DUMMY = new EmptyContext(null, null);
     private static final ScopedValue<DispatcherContext> DISPATCHER_EXECUTOR_SCOPED_VALUE = ScopedValue.newInstance();
+    private static final ThreadLocal<List<PendingStart>> START_BATCH = new ThreadLocal<>();
+    // 连续超出时间片多少次后迁移到 offload executor 迁移后连续多少次未超出再迁回
+    private static final int OFFLOAD_AFTER_OVERRUNS = Integer.getInteger("eventLoop.offloadAfterOverruns", 3);
+    private static final int RETURN_AFTER_RUNS = Integer.getInteger("eventLoop.returnAfterRuns", 16);
+    // 开启后每次挂载记录 carrier 的 CPU 时间和分配字节数 见 currentUsage/AwareShutdownExecutor#usage
+    private static final boolean ACCOUNTING = Boolean.getBoolean("dispatcher.accounting");
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static volatile AwareShutdownExecutor offloadExecutor;
     public static CustomerVirtualThreadRuntime INSTANCE;
 
     /**
@@ -65,17 +80,40 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
 
     @Override
     public void onStart(Thread.VirtualThreadTask task) {
+        // 父级上下文必须在启动者线程上解析 被准入控制延迟的任务会在释放许可的线程上重新投递
+        DispatcherContext parentContext = task.attachment() instanceof DispatcherContext ? null : getCurrentContext();
+        shedIfOverloaded(task.attachment() instanceof DispatcherContext context ? context : parentContext);
+        if (deferStart(task, deferred -> dispatchStart(deferred, parentContext, null))) {
+            return;
+        }
+        dispatchStart(task, parentContext, START_BATCH.get());
+    }
+
+    // 低优先级上下文在 executor 过载时直接拒绝新启动 Thread.start 抛出 RejectedExecutionException
+    // continuation 不受影响 已经在运行的虚拟线程照常推进 积压才能被消化
+    private static void shedIfOverloaded(DispatcherContext context) {
+        if (context == null || !context.sheddable) {
+            return;
+        }
+        AwareShutdownExecutor executor = context.executor();
+        if (executor != null && executor.overloaded()) {
+            throw new RejectedExecutionException("executor overloaded, start shed");
+        }
+    }
+
+    private void dispatchStart(Thread.VirtualThreadTask task, DispatcherContext parentContext, List<PendingStart> batch) {
         if (task.attachment() instanceof DispatcherContext dispatcherContext) {
-            if (!dispatcherContext.executor().execute(task, task.preferredCarrier())) {
-                jdkScheduler().onStart(task);
+            if (!submitStart(dispatcherContext, task, batch)) {
+                defaultScheduler().onStart(task);
             }
             return;
         }
         Thread startingVT = task.thread();
-        DispatcherContext parentContext = getCurrentContext();
+        // 与其他 runtime 共存时这里是 VirtualThreadRuntimeRouter 的路由标记 投递失败时要原样恢复
+        Object routeAttachment = task.attachment();
         if (parentContext != null) {
             if (isPollerPerCarrierThread(startingVT)) {
-                PollerContext context = new PollerContext(parentContext, startingVT, parentContext.executor(), task.preferredCarrier());
+                PollerContext context = new PollerContext(parentContext, this, startingVT, parentContext.executor(), task.preferredCarrier());
                 task.attach(context);
                 if (context.executor().execute(context.initialTask(task), task.preferredCarrier())) {
                     return;
@@ -84,16 +122,16 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
                 }
             }
 
-            DispatcherContext newContext = parentContext.inheritContext(startingVT);
+            DispatcherContext newContext = parentContext.inheritContext(this, startingVT);
             task.attach(newContext);
-            if (newContext.executor().execute(task, task.preferredCarrier())) {
+            if (submitStart(newContext, task, batch)) {
                 return;
             }
         }
-        // 1.找不到任何父级执行器，那么就使用jdk的调度器
-        // 2.或者父级的调度器无法投递 那么就使用jdk的调度器
-        task.attach(null);
-        jdkScheduler().onStart(task);
+        // 1.找不到任何父级执行器，那么就使用默认调度器
+        // 2.或者父级的调度器无法投递 那么就使用默认调度器
+        task.attach(routeAttachment);
+        defaultScheduler().onStart(task);
     }
 
     @Override
@@ -105,19 +143,127 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
             }
             throw new IllegalStateException("poller thread continue fail!");
         }
-        if (task.attachment() instanceof DispatcherContext dispatcherContext && dispatcherContext.executor().execute(task, task.preferredCarrier())) {
+        if (task.attachment() instanceof DispatcherContext dispatcherContext) {
+            if (submit(dispatcherContext, task)) {
+                return;
+            }
+        }
+        defaultScheduler().onContinue(task);
+    }
+
+    // executor 声明了时间片时 记录每次挂载的运行时间
+    // 持续超出时间片的虚拟线程之后的 continuation 改投 offload executor 表现正常后再迁回 以此保护事件循环的延迟
+    private boolean submit(DispatcherContext context, Thread.VirtualThreadTask task) {
+        AwareShutdownExecutor executor = context.executor();
+        Runnable runnable = runnable(context, task);
+        if (context.offloaded && offloadExecutor().execute(runnable, null)) {
+            return true;
+        }
+        return executor.execute(runnable, task.preferredCarrier());
+    }
+
+    private static Runnable runnable(DispatcherContext context, Thread.VirtualThreadTask task) {
+        return ACCOUNTING || TimeSlice.isEnabled() || context.executor().timeSliceNanos() > 0 ? context.timedRun(task) : task;
+    }
+
+    // batchStarts 期间的启动先攒下来 由 batchStarts 结束时统一投递
+    private boolean submitStart(DispatcherContext context, Thread.VirtualThreadTask task, List<PendingStart> batch) {
+        if (batch == null || context.executor() == null) {
+            return submit(context, task);
+        }
+        batch.add(new PendingStart(context, task));
+        return true;
+    }
+
+    /**
+     * 在 forks 中启动的虚拟线程(包括 StructuredTaskScope.fork 的子任务)先不投递 forks 返回后
+     * 按 executor 分组 每组通过一次 {@link AwareShutdownExecutor#executeBatch} 投递 事件循环上一次扇出只入队一次 唤醒一次
+     * 子任务在 forks 返回前不会运行 所以 forks 里不能等待它们(例如调用 scope.join())
+     * <pre>{@code
+     * try (var scope = StructuredTaskScope.open()) {
+     *     List<Subtask<String>> subtasks = new ArrayList<>();
+     *     CustomerVirtualThreadRuntime.batchStarts(() -> urls.forEach(url -> subtasks.add(scope.fork(() -> fetch(url)))));
+     *     scope.join();
+     * }
+     * }</pre>
+     */
+    public static void batchStarts(Runnable forks) {
+        List<PendingStart> previous = START_BATCH.get();
+        List<PendingStart> batch = new ArrayList<>();
+        START_BATCH.set(batch);
+        try {
+            forks.run();
+        } finally {
+            if (previous == null) {
+                START_BATCH.remove();
+            } else {
+                START_BATCH.set(previous);
+            }
+            flushStarts(batch);
+        }
+    }
+
+    // 不经过 INSTANCE 作为 router 里的次要 runtime 时 INSTANCE 可能是别的实例甚至为 null
+    // 每个启动回退到接收它 onStart 的那个 runtime 的默认调度器
+    private static void flushStarts(List<PendingStart> batch) {
+        if (batch.isEmpty()) {
             return;
         }
-        jdkScheduler().onContinue(task);
+        LinkedHashMap<AwareShutdownExecutor, List<PendingStart>> byExecutor = new LinkedHashMap<>();
+        for (PendingStart start : batch) {
+            byExecutor.computeIfAbsent(start.context().executor(), _ -> new ArrayList<>()).add(start);
+        }
+        byExecutor.forEach((executor, starts) -> {
+            List<Runnable> runnables = new ArrayList<>(starts.size());
+            for (PendingStart start : starts) {
+                runnables.add(runnable(start.context(), start.task()));
+            }
+            int accepted = executor.executeBatch(runnables, null);
+            // 与单个启动一样 executor 拒绝的任务回退到默认调度器
+            for (int i = accepted; i < starts.size(); i++) {
+                PendingStart start = starts.get(i);
+                start.context().runtime.defaultScheduler().onStart(start.task());
+            }
+        });
+    }
+
+    /**
+     * 替换超出时间片的虚拟线程被迁移到的 executor 默认是一个独立的 ForkJoinPool
+     */
+    public static void setOffloadExecutor(AwareShutdownExecutor executor) {
+        offloadExecutor = Objects.requireNonNull(executor, "executor");
+    }
+
+    private static AwareShutdownExecutor offloadExecutor() {
+        AwareShutdownExecutor executor = offloadExecutor;
+        if (executor == null) {
+            synchronized (CustomerVirtualThreadRuntime.class) {
+                executor = offloadExecutor;
+                if (executor == null) {
+                    executor = AwareShutdownExecutor.adapt(new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("EventLoopOffload-" + thread.getPoolIndex());
+                        return thread;
+                    }, null, true));
+                    offloadExecutor = executor;
+                }
+            }
+        }
+        return executor;
     }
 
     @Override
     public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
         DispatcherContext currentContext = getCurrentContext();
         if (currentContext == null || !currentContext.executor().supportSchedule()) {
-            return jdkScheduler().schedule(task, delay, unit);
+            return defaultScheduler().schedule(task, delay, unit);
+        }
+        try {
+            return currentContext.executor().schedule(task, delay, unit);
+        } catch (RejectedExecutionException e) {
+            // supportSchedule() 检查之后 executor 被关闭 与 execute 返回 false 一样回退
+            return defaultScheduler().schedule(task, delay, unit);
         }
-        return currentContext.executor().schedule(task, delay, unit);
     }
 
     private boolean isPollerPerCarrierThread(Thread pollerThread) {
@@ -129,7 +275,8 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
     public static Thread newThread(AwareShutdownExecutor executor, Runnable runnable) {
         Thread.VirtualThreadTask virtualThreadTask = INSTANCE.newThread(Thread.ofVirtual(), null, runnable);
         Thread thread = virtualThreadTask.thread();
-        DynamicDispatcherContext newContext = new DynamicDispatcherContext(getCurrentContext(), thread, executor);
+        DispatcherContext parentContext = getCurrentContext();
+        DynamicDispatcherContext newContext = new DynamicDispatcherContext(parentContext, INSTANCE, thread, executor, newUsageScope(parentContext));
         virtualThreadTask.attach(newContext);
         return thread;
     }
@@ -139,17 +286,48 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
     }
 
     public static void propagateExecutor(AwareShutdownExecutor executor, DispatchType type, Runnable runnable) {
+        propagateExecutor(executor, type, false, runnable);
+    }
+
+    /**
+     * @param sheddable 为 true 时作用域内(包括继承上下文的子孙虚拟线程)是低优先级的
+     *                  executor {@link AwareShutdownExecutor#overloaded() 过载} 时新启动直接失败 Thread.start 抛出 RejectedExecutionException
+     *                  嵌套在低优先级作用域里的作用域同样是低优先级的
+     */
+    public static void propagateExecutor(AwareShutdownExecutor executor, DispatchType type, boolean sheddable, Runnable runnable) {
         DispatcherContext parentContext = getCurrentContext();
         Thread currentThread = Thread.currentThread();
+        ResourceUsage usage = newUsageScope(parentContext);
         DispatcherContext newContext = switch (type) {
-            case DYNAMIC -> new DynamicDispatcherContext(parentContext, currentThread, executor);
-            case PINNING -> new PinningContext(parentContext, currentThread, executor);
+            case DYNAMIC -> new DynamicDispatcherContext(parentContext, runtimeOf(parentContext), currentThread, executor, usage);
+            case PINNING -> new PinningContext(parentContext, runtimeOf(parentContext), currentThread, executor, usage);
         };
+        // 在发布到 ScopedValue 之前写入 之后只读
+        newContext.sheddable |= sheddable;
         ScopedValue.where(DISPATCHER_EXECUTOR_SCOPED_VALUE, newContext)
                 .run(runnable);
     }
 
     public static <T> T switchExecutor(AwareShutdownExecutor executor, Callable<T> task) {
+        AwareShutdownExecutor prevExecutor = hopTo(executor);
+        try {
+            return task.call();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            hopTo(prevExecutor);
+        }
+    }
+
+    /**
+     * 单向切换当前虚拟线程的 executor 不会切回
+     * 只有当前 carrier 不属于目标 executor 时才 yield 一次(卸载后由目标 executor 重新挂载)
+     * 嵌套切换到同一个 executor 或目标本就拥有当前 carrier 时没有任何卸载
+     * 连续多段工作都要在同一个 executor 上执行时 可以用它代替多次 switchExecutor 把往返合并为一次
+     *
+     * @return 切换之前的 executor
+     */
+    public static AwareShutdownExecutor hopTo(AwareShutdownExecutor executor) {
         if (!Thread.currentThread().isVirtual()) {
             throw new IllegalStateException("current thread is not virtual thread");
         }
@@ -158,15 +336,26 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
             throw new IllegalStateException("current thread is not from dynamic dispatcher");
         }
         AwareShutdownExecutor prevExecutor = dynamicDispatcherExecutor.switchExecutor(executor);
-        Thread.yield();
-        try {
-            return task.call();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            dynamicDispatcherExecutor.switchExecutor(prevExecutor);
+        if (prevExecutor != executor && !executor.owns(LoomSecretHelper.getCurrentCarrierThread())) {
             Thread.yield();
         }
+        return prevExecutor;
+    }
+
+    /**
+     * 在目标 executor 上的新虚拟线程中执行 task 调用者不发生切换 可以连续投递多段工作形成流水线
+     * 新虚拟线程继承当前的 DispatcherContext 链
+     */
+    public static <T> CompletableFuture<T> switchExecutorAsync(AwareShutdownExecutor executor, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        newThread(executor, () -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }).start();
+        return future;
     }
 
     public enum DispatchType {
@@ -174,6 +363,26 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
         PINNING
     }
 
+    /**
+     * 当前记账范围的累计用量 没有 DispatcherContext 时返回 null
+     * 每次 propagateExecutor/newThread 开启一个新的范围 其中启动的虚拟线程(及其子孙)记入同一个范围 嵌套范围同时记入外层范围
+     * 只有以 -Ddispatcher.accounting=true 启动时才会记录 而且只记录投递到 executor 的挂载
+     * 被 executor 拒绝或者没有上下文而回退到 defaultScheduler() 的挂载不计入任何范围
+     */
+    public static ResourceUsage currentUsage() {
+        DispatcherContext context = getCurrentContext();
+        return context == null ? null : context.usage;
+    }
+
+    // 作用域内启动的虚拟线程由 onStart 所在的 runtime 重新绑定 这里只是没有父上下文时的默认值
+    private static CustomerVirtualThreadRuntime runtimeOf(DispatcherContext parentContext) {
+        return parentContext == null ? INSTANCE : parentContext.runtime;
+    }
+
+    private static ResourceUsage newUsageScope(DispatcherContext parentContext) {
+        return new ResourceUsage(parentContext == null ? null : parentContext.usage);
+    }
+
     public static List<Thread> traceThreads() {
         DispatcherContext currentContext = getCurrentContext();
         ArrayList<Thread> threads = new ArrayList<>();
@@ -198,26 +407,100 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
 
     // ==================== DispatcherContext hierarchy ====================
 
-    private sealed static abstract class DispatcherContext permits DynamicDispatcherContext, EmptyContext, PinningContext, PollerContext {
+    private sealed static abstract class DispatcherContext implements RuntimeBoundAttachment, TimeSlice.Holder
+            permits DynamicDispatcherContext, EmptyContext, PinningContext, PollerContext {
         protected final DispatcherContext parent;
+        // 创建这个上下文的 runtime 与其他 runtime 共存时 continuation 回到它
+        protected final CustomerVirtualThreadRuntime runtime;
         protected final Thread currentThread;
-
-        private DispatcherContext(DispatcherContext parent, Thread currentThread) {
+        protected final ResourceUsage usage;
+        // 低优先级 继承自父上下文 见 propagateExecutor
+        private boolean sheddable;
+        // 运行时间统计 同一个虚拟线程的挂载是串行的 只有 run 返回与下一次 onContinue 之间可能重叠
+        // 因此这里只要求最终一致 迁移判断偶尔晚一次无关紧要
+        private TimedRun timedRun;
+        private int overBudgetRuns;
+        private int withinBudgetRuns;
+        private volatile boolean offloaded;
+        // 每个上下文只属于一个虚拟线程 TimeSlice.poll 直接从 attachment 上取 由 TimedRun 在挂载前重新计时
+        private final TimeSlice.Slice timeSlice = TimeSlice.isEnabled() ? new TimeSlice.Slice() : null;
+
+        private DispatcherContext(DispatcherContext parent, CustomerVirtualThreadRuntime runtime, Thread currentThread, ResourceUsage usage) {
             this.parent = parent;
+            this.runtime = runtime;
             this.currentThread = currentThread;
+            this.usage = usage;
+            this.sheddable = parent != null && parent.sheddable;
+        }
+
+        private Runnable timedRun(Thread.VirtualThreadTask task) {
+            TimedRun run = timedRun;
+            if (run == null) {
+                run = new TimedRun(this, task);
+                timedRun = run;
+            }
+            return run;
+        }
+
+        private void recordRun(long elapsedNanos) {
+            AwareShutdownExecutor executor = executor();
+            if (executor == null || executor.timeSliceNanos() <= 0) {
+                return;
+            }
+            if (elapsedNanos > executor.timeSliceNanos()) {
+                withinBudgetRuns = 0;
+                if (++overBudgetRuns >= OFFLOAD_AFTER_OVERRUNS) {
+                    offloaded = true;
+                }
+            } else {
+                overBudgetRuns = 0;
+                if (offloaded && ++withinBudgetRuns >= RETURN_AFTER_RUNS) {
+                    withinBudgetRuns = 0;
+                    offloaded = false;
+                }
+            }
+        }
+
+        // 记到上下文的范围和它当前的 executor 上 被 offload 的挂载同样记给原 executor
+        private void recordUsage(long cpuNanos, long allocatedBytes) {
+            if (usage != null) {
+                usage.record(cpuNanos, allocatedBytes);
+            }
+            AwareShutdownExecutor executor = executor();
+            ResourceUsage executorUsage = executor == null ? null : executor.usage();
+            if (executorUsage != null) {
+                executorUsage.record(cpuNanos, allocatedBytes);
+            }
+        }
+
+        protected void resetRunBudget() {
+            overBudgetRuns = 0;
+            withinBudgetRuns = 0;
+            offloaded = false;
+        }
+
+        @Override
+        public TimeSlice.Slice timeSlice() {
+            return timeSlice;
+        }
+
+        // 被 VirtualThreadRuntimeRouter 路由时 带着上下文的虚拟线程其 continuation 仍回到本 runtime
+        @Override
+        public VirtualThreadRuntime runtime() {
+            return runtime;
         }
 
         abstract AwareShutdownExecutor executor();
 
-        abstract DispatcherContext inheritContext(Thread currentThread);
+        abstract DispatcherContext inheritContext(CustomerVirtualThreadRuntime runtime, Thread currentThread);
     }
 
     private final static class PollerContext extends DispatcherContext {
         private final AwareShutdownExecutor executor;
         private final Thread currentCarrierThread;
 
-        private PollerContext(DispatcherContext parent, Thread currentThread, AwareShutdownExecutor executor, Thread currentCarrierThread) {
-            super(parent, currentThread);
+        private PollerContext(DispatcherContext parent, CustomerVirtualThreadRuntime runtime, Thread currentThread, AwareShutdownExecutor executor, Thread currentCarrierThread) {
+            super(parent, runtime, currentThread, parent.usage);
             this.executor = executor;
             this.currentCarrierThread = currentCarrierThread;
         }
@@ -244,7 +527,7 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
         }
 
         @Override
-        DispatcherContext inheritContext(Thread currentThread) {
+        DispatcherContext inheritContext(CustomerVirtualThreadRuntime runtime, Thread currentThread) {
             throw new UnsupportedOperationException("poller context can not inherit context");
         }
     }
@@ -252,8 +535,8 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
     private final static class PinningContext extends DispatcherContext {
         private final AwareShutdownExecutor executor;
 
-        private PinningContext(DispatcherContext parent, Thread currentThread, AwareShutdownExecutor executor) {
-            super(parent, currentThread);
+        private PinningContext(DispatcherContext parent, CustomerVirtualThreadRuntime runtime, Thread currentThread, AwareShutdownExecutor executor, ResourceUsage usage) {
+            super(parent, runtime, currentThread, usage);
             this.executor = executor;
         }
 
@@ -263,14 +546,14 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
         }
 
         @Override
-        DispatcherContext inheritContext(Thread currentThread) {
-            return new PinningContext(this, currentThread, executor);
+        DispatcherContext inheritContext(CustomerVirtualThreadRuntime runtime, Thread currentThread) {
+            return new PinningContext(this, runtime, currentThread, executor, usage);
         }
     }
 
     private static final class EmptyContext extends DispatcherContext {
-        private EmptyContext(Thread currentThread) {
-            super(null, currentThread);
+        private EmptyContext(CustomerVirtualThreadRuntime runtime, Thread currentThread) {
+            super(null, runtime, currentThread, null);
         }
 
         @Override
@@ -279,16 +562,16 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
         }
 
         @Override
-        DispatcherContext inheritContext(Thread currentThread) {
-            return new EmptyContext(currentThread);
+        DispatcherContext inheritContext(CustomerVirtualThreadRuntime runtime, Thread currentThread) {
+            return new EmptyContext(runtime, currentThread);
         }
     }
 
     private final static class DynamicDispatcherContext extends DispatcherContext {
         private final AtomicReference<AwareShutdownExecutor> executorRef;
 
-        public DynamicDispatcherContext(DispatcherContext parent, Thread currentThread, AwareShutdownExecutor executor) {
-            super(parent, currentThread);
+        public DynamicDispatcherContext(DispatcherContext parent, CustomerVirtualThreadRuntime runtime, Thread currentThread, AwareShutdownExecutor executor, ResourceUsage usage) {
+            super(parent, runtime, currentThread, usage);
             this.executorRef = new AtomicReference<>(executor);
         }
 
@@ -298,21 +581,102 @@ public class CustomerVirtualThreadRuntime extends AbstractVirtualThreadRuntime {
         }
 
         @Override
-        public DispatcherContext inheritContext(Thread currentThread) {
-            return new DynamicDispatcherContext(this, currentThread, executorRef.get());
+        public DispatcherContext inheritContext(CustomerVirtualThreadRuntime runtime, Thread currentThread) {
+            return new DynamicDispatcherContext(this, runtime, currentThread, executorRef.get(), usage);
         }
 
         public AwareShutdownExecutor switchExecutor(AwareShutdownExecutor executor) {
             Objects.requireNonNull(executor, "executor");
+            // 显式切换的目标优先于自动 offload
+            resetRunBudget();
             return executorRef.getAndSet(executor);
         }
     }
 
+    private record PendingStart(DispatcherContext context, Thread.VirtualThreadTask task) {
+    }
+
+    // 每个 DispatcherContext 复用一个 同一个虚拟线程同一时间只会有一个待运行的 continuation
+    // run 在 carrier 上执行 task.run() 才挂载虚拟线程 所以前后读到的是 carrier 的 CPU 时间和分配计数
+    // 也是 TimeSlice 的挂载钩子 每次挂载都从这里重新开始一个时间片
+    private static final class TimedRun implements Runnable {
+        private final DispatcherContext context;
+        private final Thread.VirtualThreadTask task;
+
+        private TimedRun(DispatcherContext context, Thread.VirtualThreadTask task) {
+            this.context = context;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            TimeSlice.mounting(task);
+            long start = System.nanoTime();
+            long cpuStart = ACCOUNTING ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0;
+            long allocatedStart = ACCOUNTING ? THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() : 0;
+            try {
+                task.run();
+            } finally {
+                context.recordRun(System.nanoTime() - start);
+                if (ACCOUNTING) {
+                    context.recordUsage(THREAD_MX_BEAN.getCurrentThreadCpuTime() - cpuStart,
+                            THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() - allocatedStart);
+                }
+            }
+        }
+    }
+
     // ==================== AwareShutdownExecutor ====================
 
     public interface AwareShutdownExecutor {
         boolean execute(Runnable runnable, Thread perferredThread);
 
+        /**
+         * 投递到本 executor 的任务是否会在 carrier 上运行 为 true 时切换到本 executor 无需卸载
+         */
+        default boolean owns(Thread carrier) {
+            return false;
+        }
+
+        /**
+         * 单次挂载的时间片 大于 0 时 runtime 会统计在本 executor 上运行的虚拟线程
+         * 持续超出时间片的虚拟线程会被迁移到 offload executor 直到其恢复正常
+         */
+        default long timeSliceNanos() {
+            return 0;
+        }
+
+        /**
+         * 一次投递一组任务 返回从头开始被接受的任务数 其余的由调用者回退
+         * 默认逐个 execute 能一次入队并且只唤醒一次的 executor 应当覆盖它
+         */
+        default int executeBatch(List<? extends Runnable> runnables, Thread perferredThread) {
+            int accepted = 0;
+            for (Runnable runnable : runnables) {
+                if (!execute(runnable, perferredThread)) {
+                    break;
+                }
+                accepted++;
+            }
+            return accepted;
+        }
+
+        /**
+         * 本 executor 的累计用量 开启 -Ddispatcher.accounting=true 时 runtime 把在其上挂载的 CPU 时间和分配字节数记入
+         * 返回 null 表示不统计
+         */
+        default ResourceUsage usage() {
+            return null;
+        }
+
+        /**
+         * 排队时延是否持续高于目标(CoDel) 为 true 时 runtime 拒绝低优先级上下文里的新启动 continuation 照常投递
+         * 默认 false
+         */
+        default boolean overloaded() {
+            return false;
+        }
+
         default boolean supportSchedule() {
             return false;
         }
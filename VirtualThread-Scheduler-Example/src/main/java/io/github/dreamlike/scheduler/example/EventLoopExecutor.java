@@ -0,0 +1,563 @@
+package io.github.dreamlike.scheduler.example;
+
+import io.github.dreamlike.LoomSecretHelper;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// 专门作为 propagateExecutor/newThread 目标的单线程事件循环
+// 1. 多生产者单消费者的无锁链表队列 投递只有一次 getAndSet 没有锁
+// 2. 每轮最多运行 runBudget 个任务 然后回头检查定时器 避免定时器被大量就绪任务饿死
+// 3. 事件循环空闲时 park 生产者只有在其确实睡眠时才 unpark 多次投递只会产生一次唤醒
+//    executeBatch 先在本地串好一段链表 再用一次 getAndSet 挂到队尾 一批任务只有一次入队和一次唤醒
+// 4. 定时器是事件循环线程独占的小顶堆 所以 supportSchedule() 为 true 虚拟线程的 sleep/parkNanos 超时也在本线程触发
+// 5. 声明了 timeSlice 单次挂载持续超出它的虚拟线程会被 runtime 迁出事件循环 见 AwareShutdownExecutor#timeSliceNanos
+// 6. LIFO 槽 在事件循环上运行的任务唤醒或启动的另一个虚拟线程不进队尾 而是放进 runNext 槽 当前任务结束后立刻运行 数据还在缓存里
+//    槽里原有的任务被挤到队尾 任务重新投递自己(yield)时照常排到队尾
+//    连续从槽里运行 lifoLimit 次后槽里的任务也排到队尾 避免互相唤醒的一对虚拟线程饿死队列
+// 7. 排队时延(CoDel) 出队时计算任务在队列里停留的时间 连续 sojournInterval 都高于 sojournTarget 时 overloaded() 为 true
+//    直到某次出队低于目标或者队列被清空 runtime 据此拒绝低优先级上下文里的新启动 见 AwareShutdownExecutor#overloaded
+// shutdown 之后 execute 返回 false 由 runtime 回退到默认调度器 已投递的任务运行完事件循环即退出
+// 尚未到期的定时器(例如 parkNanos 一小时的超时)不会拖住 close() 退出时移交给共享的 EventLoop-Timer 线程 仍按原定时刻触发
+public final class EventLoopExecutor implements CustomerVirtualThreadRuntime.AwareShutdownExecutor, AutoCloseable {
+
+    public static final int DEFAULT_RUN_BUDGET = 256;
+    public static final Duration DEFAULT_TIME_SLICE = Duration.ofMillis(10);
+    public static final int DEFAULT_LIFO_LIMIT = 3;
+    // 0 表示不统计排队时延
+    private static final long SOJOURN_TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("eventLoop.sojournTargetMillis", 5));
+    private static final long SOJOURN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("eventLoop.sojournIntervalMillis", 100));
+
+    private static final VarHandle TAIL;
+    private static final VarHandle NEXT;
+    private static final VarHandle WAKEUP_STATE;
+
+    private static final int AWAKE = 0;
+    private static final int SLEEPING = 1;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            TAIL = lookup.findVarHandle(EventLoopExecutor.class, "tail", Node.class);
+            NEXT = lookup.findVarHandle(Node.class, "next", Node.class);
+            WAKEUP_STATE = lookup.findVarHandle(EventLoopExecutor.class, "wakeupState", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final EventLoopThread thread;
+    private final int runBudget;
+    private final long timeSliceNanos;
+    private final int lifoLimit;
+    private final ResourceUsage usage = new ResourceUsage();
+    // 已投递但尚未运行完的任务数 也用作 shutdown 与投递之间的握手
+    private final AtomicInteger pending = new AtomicInteger();
+    // 仅事件循环线程访问
+    private final PriorityQueue<TimerTask> timers = new PriorityQueue<>();
+    private final AtomicInteger cancelledTimers = new AtomicInteger();
+    private long timerSequence;
+
+    // 仅事件循环线程访问
+    private Node head;
+    private Runnable runNext;
+    private Runnable running;
+    private int lifoRuns;
+    // 排队时延首次高于目标后 再过一个 interval 的时刻 0 表示当前低于目标
+    private long sojournAboveUntil;
+    private volatile boolean overloaded;
+    @SuppressWarnings("unused")
+    private volatile Node tail;
+    @SuppressWarnings("unused")
+    private volatile int wakeupState;
+    private volatile boolean shutdown;
+
+    public EventLoopExecutor(String name) {
+        this(name, DEFAULT_RUN_BUDGET);
+    }
+
+    public EventLoopExecutor(String name, int runBudget) {
+        this(name, runBudget, DEFAULT_TIME_SLICE);
+    }
+
+    /**
+     * @param timeSlice 单次挂载的时间片 {@link Duration#ZERO} 表示不统计 不迁移
+     */
+    public EventLoopExecutor(String name, int runBudget, Duration timeSlice) {
+        this(name, runBudget, timeSlice, DEFAULT_LIFO_LIMIT);
+    }
+
+    /**
+     * @param lifoLimit 连续从 LIFO 槽运行的最多次数 0 表示关闭 LIFO 槽
+     */
+    public EventLoopExecutor(String name, int runBudget, Duration timeSlice, int lifoLimit) {
+        if (runBudget <= 0) {
+            throw new IllegalArgumentException("runBudget must be positive");
+        }
+        if (lifoLimit < 0) {
+            throw new IllegalArgumentException("lifoLimit must not be negative");
+        }
+        this.runBudget = runBudget;
+        this.timeSliceNanos = timeSlice.toNanos();
+        this.lifoLimit = lifoLimit;
+        this.head = new Node(null);
+        this.tail = head;
+        this.thread = new EventLoopThread(this, name);
+        this.thread.start();
+    }
+
+    /**
+     * 当前线程(虚拟线程则取其 carrier)所属的事件循环 不在任何事件循环上时返回 null
+     */
+    public static EventLoopExecutor current() {
+        Thread current = Thread.currentThread();
+        Thread carrier = current.isVirtual() ? LoomSecretHelper.getCurrentCarrierThread() : current;
+        return carrier instanceof EventLoopThread eventLoopThread ? eventLoopThread.executor : null;
+    }
+
+    public boolean inEventLoop() {
+        return current() == this;
+    }
+
+    public Thread thread() {
+        return thread;
+    }
+
+    @Override
+    public boolean execute(Runnable runnable, Thread perferredThread) {
+        if (lifoLimit > 0 && inEventLoop() && runnable != running) {
+            return offerNext(runnable);
+        }
+        return offer(runnable);
+    }
+
+    @Override
+    public int executeBatch(List<? extends Runnable> runnables, Thread perferredThread) {
+        int size = runnables.size();
+        if (size == 0) {
+            return 0;
+        }
+        pending.addAndGet(size);
+        if (shutdown) {
+            pending.addAndGet(-size);
+            return 0;
+        }
+        long now = enqueueTime();
+        Node first = new Node(runnables.get(0), now);
+        Node last = first;
+        for (int i = 1; i < size; i++) {
+            Node node = new Node(runnables.get(i), now);
+            // 这段链表在挂到队尾之前只有当前线程可见 由下面的 setRelease 一并发布
+            NEXT.set(last, node);
+            last = node;
+        }
+        link(first, last);
+        return size;
+    }
+
+    @Override
+    public long timeSliceNanos() {
+        return timeSliceNanos;
+    }
+
+    @Override
+    public boolean owns(Thread carrier) {
+        return carrier == thread;
+    }
+
+    @Override
+    public ResourceUsage usage() {
+        return usage;
+    }
+
+    @Override
+    public boolean overloaded() {
+        return overloaded;
+    }
+
+    @Override
+    public boolean supportSchedule() {
+        return !shutdown;
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        TimerTask timerTask = new TimerTask(task, System.nanoTime() + unit.toNanos(delay));
+        if (inEventLoop()) {
+            addTimer(timerTask);
+        } else if (!offer(() -> addTimer(timerTask))) {
+            throw new RejectedExecutionException("event loop " + thread.getName() + " is shut down");
+        }
+        return timerTask;
+    }
+
+    /**
+     * 已投递但尚未运行完的任务数 不含定时器
+     */
+    public int pendingTasks() {
+        return pending.get();
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        return thread.getState() == Thread.State.TERMINATED;
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        wakeup();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return thread.join(Duration.ofNanos(unit.toNanos(timeout)));
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+        if (inEventLoop()) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean offer(Runnable runnable) {
+        // 先计数再检查 shutdown 事件循环以相反顺序检查 保证不会有任务在其退出后入队
+        pending.incrementAndGet();
+        if (shutdown) {
+            pending.decrementAndGet();
+            return false;
+        }
+        Node node = new Node(runnable, enqueueTime());
+        link(node, node);
+        return true;
+    }
+
+    // 只在事件循环线程上调用 不需要唤醒
+    private boolean offerNext(Runnable runnable) {
+        pending.incrementAndGet();
+        if (shutdown) {
+            pending.decrementAndGet();
+            return false;
+        }
+        Runnable displaced = runNext;
+        runNext = runnable;
+        if (displaced != null) {
+            Node node = new Node(displaced, enqueueTime());
+            link(node, node);
+        }
+        return true;
+    }
+
+    private void link(Node first, Node last) {
+        Node prev = (Node) TAIL.getAndSet(this, last);
+        NEXT.setRelease(prev, first);
+        wakeup();
+    }
+
+    private void wakeup() {
+        if ((int) WAKEUP_STATE.getVolatile(this) == SLEEPING && WAKEUP_STATE.compareAndSet(this, SLEEPING, AWAKE)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // ==================== event loop ====================
+
+    private void runLoop() {
+        while (true) {
+            int ran = runTimers();
+            ran += runTasks();
+            if (ran > 0) {
+                continue;
+            }
+            if (shutdown && pending.get() == 0) {
+                handOffTimers();
+                return;
+            }
+            waitForWork();
+        }
+    }
+
+    private int runTasks() {
+        int ran = 0;
+        while (ran < runBudget) {
+            Runnable task = takeRunNext();
+            if (task == null) {
+                task = poll();
+                if (task == null) {
+                    // 队列清空 积压已经消化
+                    sojournAboveUntil = 0;
+                    if (overloaded) {
+                        overloaded = false;
+                    }
+                    break;
+                }
+                lifoRuns = 0;
+            }
+            ran++;
+            safeRun(task);
+        }
+        if (ran > 0) {
+            pending.addAndGet(-ran);
+        }
+        return ran;
+    }
+
+    private Runnable takeRunNext() {
+        Runnable task = runNext;
+        if (task == null) {
+            return null;
+        }
+        runNext = null;
+        if (lifoRuns < lifoLimit) {
+            lifoRuns++;
+            return task;
+        }
+        // 公平上限 排到队尾 先运行已经在排队的任务
+        Node node = new Node(task, enqueueTime());
+        link(node, node);
+        return null;
+    }
+
+    private Runnable poll() {
+        Node next = (Node) NEXT.getAcquire(head);
+        if (next == null) {
+            return null;
+        }
+        head = next;
+        Runnable task = next.task;
+        next.task = null;
+        if (SOJOURN_TARGET_NANOS > 0) {
+            recordSojourn(System.nanoTime(), next.enqueuedAt);
+        }
+        return task;
+    }
+
+    private static long enqueueTime() {
+        return SOJOURN_TARGET_NANOS > 0 ? System.nanoTime() : 0;
+    }
+
+    // CoDel 的判定 单个慢任务造成的短暂积压不算过载 只有整整一个 interval 都没能降到目标以下才算
+    private void recordSojourn(long now, long enqueuedAt) {
+        if (now - enqueuedAt < SOJOURN_TARGET_NANOS) {
+            sojournAboveUntil = 0;
+            if (overloaded) {
+                overloaded = false;
+            }
+            return;
+        }
+        if (sojournAboveUntil == 0) {
+            // 避开 0 这个哨兵值
+            sojournAboveUntil = (now + SOJOURN_INTERVAL_NANOS) | 1;
+        } else if (!overloaded && now - sojournAboveUntil >= 0) {
+            overloaded = true;
+        }
+    }
+
+    private boolean hasTasks() {
+        // 生产者已交换 tail 但还没链接 next 时 队列同样视为非空
+        return runNext != null || NEXT.getAcquire(head) != null || tail != head;
+    }
+
+    private void waitForWork() {
+        WAKEUP_STATE.setVolatile(this, SLEEPING);
+        // 生产者已入队但尚未可见 或者已经 shutdown(要么还有在途的投递 要么该退出了) 都不能睡死
+        if (hasTasks() || shutdown) {
+            WAKEUP_STATE.setVolatile(this, AWAKE);
+            Thread.onSpinWait();
+            return;
+        }
+        TimerTask next = timers.peek();
+        if (next == null) {
+            LockSupport.park(this);
+        } else {
+            long delay = next.deadline - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(this, delay);
+            }
+        }
+        WAKEUP_STATE.setVolatile(this, AWAKE);
+    }
+
+    private int runTimers() {
+        // 虚拟线程被提前 unpark 时会取消其超时定时器 惰性删除过多时整体清理一次
+        if (cancelledTimers.get() > Math.max(256, timers.size() >>> 1)) {
+            cancelledTimers.set(0);
+            timers.removeIf(Future::isCancelled);
+        }
+        int ran = 0;
+        long now = System.nanoTime();
+        while (ran < runBudget) {
+            TimerTask next = timers.peek();
+            if (next == null || next.deadline - now > 0) {
+                break;
+            }
+            timers.poll();
+            if (!next.isCancelled()) {
+                ran++;
+                next.run();
+            }
+        }
+        return ran;
+    }
+
+    private void handOffTimers() {
+        for (TimerTask timer = timers.poll(); timer != null; timer = timers.poll()) {
+            if (!timer.isCancelled()) {
+                timer.handOff();
+            }
+        }
+    }
+
+    private void addTimer(TimerTask timerTask) {
+        timerTask.sequence = timerSequence++;
+        timers.add(timerTask);
+    }
+
+    private void safeRun(Runnable task) {
+        running = task;
+        try {
+            task.run();
+        } catch (Throwable t) {
+            reportException(t);
+        } finally {
+            running = null;
+        }
+    }
+
+    // 任务异常不能打断事件循环
+    private void reportException(Throwable t) {
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+    }
+
+    private static final class Node {
+        private Runnable task;
+        private final long enqueuedAt;
+        @SuppressWarnings("unused")
+        private volatile Node next;
+
+        private Node(Runnable task) {
+            this(task, 0);
+        }
+
+        private Node(Runnable task, long enqueuedAt) {
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final class TimerTask extends FutureTask<Void> implements ScheduledFuture<Void> {
+        private final long deadline;
+        private long sequence;
+        // 事件循环退出后由 TimerHandOff 接管时的句柄 取消要同时取消它
+        private volatile Future<?> handedOff;
+
+        private TimerTask(Runnable task, long deadline) {
+            super(task, null);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            if (other instanceof TimerTask that) {
+                int byDeadline = Long.compare(deadline - that.deadline, 0);
+                return byDeadline != 0 ? byDeadline : Long.compare(sequence, that.sequence);
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                Future<?> delegate = handedOff;
+                if (delegate != null) {
+                    delegate.cancel(false);
+                } else {
+                    cancelledTimers.incrementAndGet();
+                }
+            }
+            return cancelled;
+        }
+
+        private void handOff() {
+            Future<?> delegate = TimerHandOff.SCHEDULER.schedule(this, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            handedOff = delegate;
+            // 与 cancel 并发时 cancel 可能还没看到 handedOff
+            if (isCancelled()) {
+                delegate.cancel(false);
+            }
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            super.setException(t);
+            reportException(t);
+        }
+    }
+
+    // 所有已关闭事件循环共用 按需创建 取消的定时器立即移出队列
+    private static final class TimerHandOff {
+        private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1,
+                runnable -> Thread.ofPlatform().daemon().name("EventLoop-Timer").unstarted(runnable));
+
+        static {
+            SCHEDULER.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    /**
+     * 事件循环线程 可以通过 {@link EventLoopExecutor#current()} 从其上运行的虚拟线程反查到所属的事件循环
+     */
+    public static final class EventLoopThread extends Thread {
+        private final EventLoopExecutor executor;
+
+        private EventLoopThread(EventLoopExecutor executor, String name) {
+            super(name);
+            this.executor = executor;
+        }
+
+        public EventLoopExecutor executor() {
+            return executor;
+        }
+
+        @Override
+        public void run() {
+            executor.runLoop();
+        }
+    }
+}
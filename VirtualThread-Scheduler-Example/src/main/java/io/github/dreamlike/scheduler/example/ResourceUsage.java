@@ -0,0 +1,52 @@
+package io.github.dreamlike.scheduler.example;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// 累计的 carrier CPU 时间与堆分配字节数 由 runtime 在每次挂载结束时记入
+// 记账范围见 CustomerVirtualThreadRuntime#currentUsage 与 AwareShutdownExecutor#usage
+// 计数器是 LongAdder 同一范围内的虚拟线程在多个 carrier 上同时挂载也不会争用同一个缓存行
+// 子范围的记录同时累加到所有祖先范围 读取是弱一致的快照
+public final class ResourceUsage {
+
+    private final ResourceUsage parent;
+    private final LongAdder cpuNanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder mounts = new LongAdder();
+
+    public ResourceUsage() {
+        this(null);
+    }
+
+    ResourceUsage(ResourceUsage parent) {
+        this.parent = parent;
+    }
+
+    public ResourceUsage parent() {
+        return parent;
+    }
+
+    public long cpuNanos() {
+        return cpuNanos.sum();
+    }
+
+    public long allocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    public long mounts() {
+        return mounts.sum();
+    }
+
+    void record(long cpu, long bytes) {
+        for (ResourceUsage usage = this; usage != null; usage = usage.parent) {
+            usage.cpuNanos.add(cpu);
+            usage.allocatedBytes.add(bytes);
+            usage.mounts.increment();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceUsage[cpuNanos=" + cpuNanos() + ", allocatedBytes=" + allocatedBytes() + ", mounts=" + mounts() + "]";
+    }
+}
@@ -0,0 +1,90 @@
+import io.github.dreamlike.LoomSecretHelper;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchStartsTest {
+
+    @Test
+    public void testForksAreSubmittedInOneBatch() throws Exception {
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop")) {
+            AtomicInteger executes = new AtomicInteger();
+            List<Integer> batches = new ArrayList<>();
+            CustomerVirtualThreadRuntime.AwareShutdownExecutor counting = new CustomerVirtualThreadRuntime.AwareShutdownExecutor() {
+                @Override
+                public boolean execute(Runnable runnable, Thread perferredThread) {
+                    executes.incrementAndGet();
+                    return eventLoop.execute(runnable, perferredThread);
+                }
+
+                @Override
+                public int executeBatch(List<? extends Runnable> runnables, Thread perferredThread) {
+                    synchronized (batches) {
+                        batches.add(runnables.size());
+                    }
+                    return eventLoop.executeBatch(runnables, perferredThread);
+                }
+
+                @Override
+                public boolean owns(Thread carrier) {
+                    return eventLoop.owns(carrier);
+                }
+            };
+
+            int forks = 8;
+            ConcurrentLinkedQueue<Thread> forkCarriers = new ConcurrentLinkedQueue<>();
+            CompletableFuture<Thread> ownerCarrier = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.newThread(counting, () -> {
+                // 断言失败要落到 future 里 否则测试线程会一直等下去
+                try {
+                    executes.set(0);
+                    List<Thread> children = new ArrayList<>();
+                    CustomerVirtualThreadRuntime.batchStarts(() -> {
+                        for (int i = 0; i < forks; i++) {
+                            children.add(Thread.startVirtualThread(() -> forkCarriers.add(LoomSecretHelper.getCurrentCarrierThread())));
+                        }
+                        // nothing has been submitted yet
+                        Assert.assertEquals(0, executes.get());
+                        Assert.assertTrue(batches.isEmpty());
+                    });
+                    for (Thread child : children) {
+                        child.join();
+                    }
+                    // the owner is woken up on its own executor
+                    ownerCarrier.complete(LoomSecretHelper.getCurrentCarrierThread());
+                } catch (Throwable t) {
+                    ownerCarrier.completeExceptionally(t);
+                }
+            }).start();
+
+            Assert.assertSame(eventLoop.thread(), ownerCarrier.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(List.of(forks), batches);
+            Assert.assertEquals(forks, forkCarriers.size());
+            for (Thread carrier : forkCarriers) {
+                Assert.assertSame(eventLoop.thread(), carrier);
+            }
+        }
+    }
+
+    @Test
+    public void testRejectedBatchFallsBack() throws Exception {
+        EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop");
+        eventLoop.close();
+        Assert.assertEquals(0, eventLoop.executeBatch(List.of(() -> {
+        }), null));
+
+        CompletableFuture<Boolean> ran = new CompletableFuture<>();
+        CustomerVirtualThreadRuntime.propagateExecutor(eventLoop, () ->
+                CustomerVirtualThreadRuntime.batchStarts(() -> Thread.startVirtualThread(() -> ran.complete(true))));
+        // the shut down event loop rejects the batch and the fork runs on the default scheduler
+        Assert.assertTrue(ran.get(5, TimeUnit.SECONDS));
+    }
+}
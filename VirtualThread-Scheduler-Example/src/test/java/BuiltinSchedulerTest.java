@@ -0,0 +1,99 @@
+import io.github.dreamlike.BuiltinScheduler;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class BuiltinSchedulerTest {
+
+    @Test
+    public void testTuneAtRuntime() throws Exception {
+        // 触发虚拟线程初始化 保证 runtime 已经创建
+        Thread.startVirtualThread(() -> {
+        }).join();
+        BuiltinScheduler scheduler = CustomerVirtualThreadRuntime.INSTANCE.builtinScheduler();
+        Assert.assertNotNull(scheduler);
+        Assert.assertSame(scheduler, CustomerVirtualThreadRuntime.INSTANCE.builtinScheduler());
+
+        int original = scheduler.parallelism();
+        BuiltinScheduler.SubmitMode originalMode = scheduler.submitMode();
+        try {
+            Assert.assertEquals(original, scheduler.setParallelism(original + 1));
+            Assert.assertEquals(original + 1, scheduler.stats().parallelism());
+
+            for (BuiltinScheduler.SubmitMode mode : BuiltinScheduler.SubmitMode.values()) {
+                scheduler.setSubmitMode(mode);
+                List<Thread> threads = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    threads.add(Thread.startVirtualThread(() -> {
+                        for (int j = 0; j < 10; j++) {
+                            Thread.yield();
+                        }
+                    }));
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+            BuiltinScheduler.Stats stats = scheduler.stats();
+            Assert.assertTrue(stats.poolSize() > 0);
+            Assert.assertTrue(stats.stealCount() >= 0);
+        } finally {
+            scheduler.setSubmitMode(originalMode);
+            scheduler.setParallelism(original);
+        }
+    }
+
+    @Test
+    public void testLazyAndSignalSubmitModes() throws Exception {
+        Thread.startVirtualThread(() -> {
+        }).join();
+        BuiltinScheduler scheduler = CustomerVirtualThreadRuntime.INSTANCE.builtinScheduler();
+        Assert.assertNotNull(scheduler);
+        BuiltinScheduler.SubmitMode originalMode = scheduler.submitMode();
+        try {
+            for (BuiltinScheduler.SubmitMode mode : List.of(BuiltinScheduler.SubmitMode.LAZY, BuiltinScheduler.SubmitMode.SIGNAL)) {
+                scheduler.setSubmitMode(mode);
+                Assert.assertEquals(mode, scheduler.submitMode());
+                // 两个虚拟线程互相 unpark unpark 发生在 carrier 上 LAZY 时走 lazySubmit
+                Assert.assertEquals(mode.name(), 2000, pingPong(1000).get(10, TimeUnit.SECONDS).intValue());
+            }
+        } finally {
+            scheduler.setSubmitMode(originalMode);
+        }
+    }
+
+    private static CompletableFuture<Integer> pingPong(int rounds) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        AtomicInteger turns = new AtomicInteger();
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            int self = i;
+            threads[i] = Thread.ofVirtual().unstarted(() -> {
+                try {
+                    for (int round = 0; round < rounds; round++) {
+                        while (turns.get() % 2 != self) {
+                            LockSupport.park();
+                        }
+                        turns.incrementAndGet();
+                        LockSupport.unpark(threads[1 - self]);
+                    }
+                    if (self == 1) {
+                        result.complete(turns.get());
+                    }
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        }
+        threads[0].start();
+        threads[1].start();
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+import io.github.dreamlike.LoomSecretHelper;
+import io.github.dreamlike.scheduler.example.CarrierAffineExecutorGroup;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CarrierAffineExecutorGroupTest {
+
+    @Test
+    public void testContinuationStaysOnCarrier() {
+        try (CarrierAffineExecutorGroup group = new CarrierAffineExecutorGroup("Affine", 4)) {
+            CompletableFuture<Set<Thread>> carriers = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.propagateExecutor(group, () -> {
+                Thread.startVirtualThread(() -> {
+                    Set<Thread> seen = ConcurrentHashMap.newKeySet();
+                    for (int i = 0; i < 10; i++) {
+                        seen.add(LoomSecretHelper.getCurrentCarrierThread());
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    carriers.complete(seen);
+                });
+            });
+            Assert.assertEquals(1, carriers.join().size());
+            Assert.assertTrue(group.affinityHits() >= 10);
+        }
+    }
+
+    @Test
+    public void testOverloadedWorkerSpills() throws Exception {
+        int threshold = 8;
+        try (CarrierAffineExecutorGroup group = new CarrierAffineExecutorGroup("Affine", 2, threshold)) {
+            EventLoopExecutor busy = group.workers().get(0);
+            CountDownLatch block = new CountDownLatch(1);
+            Assert.assertTrue(busy.execute(() -> {
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, null));
+            CountDownLatch done = new CountDownLatch(100);
+            Set<Thread> ranOn = ConcurrentHashMap.newKeySet();
+            for (int i = 0; i < 100; i++) {
+                Assert.assertTrue(group.execute(() -> {
+                    ranOn.add(Thread.currentThread());
+                    done.countDown();
+                }, busy.thread()));
+            }
+            Assert.assertTrue(busy.pendingTasks() <= threshold + 1);
+            Assert.assertTrue(group.affinityMisses() > 0);
+            block.countDown();
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(ranOn.contains(group.workers().get(1).thread()));
+        }
+    }
+}
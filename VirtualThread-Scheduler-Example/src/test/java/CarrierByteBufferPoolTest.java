@@ -0,0 +1,57 @@
+import io.github.dreamlike.CarrierByteBufferPool;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class CarrierByteBufferPoolTest {
+
+    @Test
+    public void testReuseOnSameCarrier() {
+        CarrierByteBufferPool pool = new CarrierByteBufferPool(512, 4096, 4, 4);
+        ByteBuffer first = pool.acquire(600);
+        Assert.assertTrue(first.isDirect());
+        Assert.assertEquals(1024, first.capacity());
+        Assert.assertEquals(600, first.limit());
+        pool.release(first);
+        ByteBuffer second = pool.acquire(1000);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1000, second.limit());
+        Assert.assertEquals(1, pool.stats().hits());
+
+        // 超出 maxSize 的请求不进池
+        ByteBuffer large = pool.acquire(8192);
+        pool.release(large);
+        Assert.assertNotSame(large, pool.acquire(8192));
+    }
+
+    @Test
+    public void testDepotMovesBuffersBetweenCarriers() {
+        CarrierByteBufferPool pool = new CarrierByteBufferPool(512, 4096, 2, 4);
+        try (EventLoopExecutor producer = new EventLoopExecutor("BufferProducer");
+             EventLoopExecutor consumer = new EventLoopExecutor("BufferConsumer")) {
+            CompletableFuture<List<ByteBuffer>> released = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.newThread(producer, () -> {
+                List<ByteBuffer> buffers = new ArrayList<>();
+                for (int i = 0; i < 6; i++) {
+                    buffers.add(pool.acquire(512));
+                }
+                // 两个弹匣各装 2 个 其余整匣进入 depot
+                buffers.forEach(pool::release);
+                released.complete(buffers);
+            }).start();
+            List<ByteBuffer> buffers = released.join();
+            Assert.assertEquals(1, pool.stats().depotMagazines());
+
+            CompletableFuture<ByteBuffer> reused = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.newThread(consumer, () -> reused.complete(pool.acquire(512))).start();
+            Assert.assertTrue(buffers.stream().anyMatch(b -> b == reused.join()));
+            Assert.assertEquals(0, pool.stats().depotMagazines());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import io.github.dreamlike.CarrierLocal;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class CarrierLocalTest {
+
+    @Test
+    public void testValueIsSharedPerCarrier() throws Exception {
+        CarrierLocal<long[]> counter = CarrierLocal.withInitial(() -> new long[1]);
+        try (EventLoopExecutor first = new EventLoopExecutor("CarrierLocal-1");
+             EventLoopExecutor second = new EventLoopExecutor("CarrierLocal-2")) {
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                EventLoopExecutor loop = i % 2 == 0 ? first : second;
+                Thread thread = CustomerVirtualThreadRuntime.newThread(loop, () -> {
+                    for (int j = 0; j < 100; j++) {
+                        counter.accept(c -> c[0]++);
+                        Thread.yield();
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            CompletableFuture<Long> firstCount = new CompletableFuture<>();
+            CompletableFuture<Long> secondCount = new CompletableFuture<>();
+            CompletableFuture<Integer> firstIndex = new CompletableFuture<>();
+            CompletableFuture<Integer> secondIndex = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.newThread(first, () -> {
+                firstCount.complete(counter.apply(c -> c[0]));
+                firstIndex.complete(CarrierLocal.carrierIndex());
+            }).start();
+            CustomerVirtualThreadRuntime.newThread(second, () -> {
+                secondCount.complete(counter.apply(c -> c[0]));
+                secondIndex.complete(CarrierLocal.carrierIndex());
+            }).start();
+            // 每个事件循环只有一个 carrier 其上所有虚拟线程共用同一份值
+            Assert.assertEquals(1000L, (long) firstCount.join());
+            Assert.assertEquals(1000L, (long) secondCount.join());
+            Assert.assertNotEquals(firstIndex.join(), secondIndex.join());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testValueMustNotEscape() {
+        CarrierLocal<StringBuilder> local = CarrierLocal.withInitial(StringBuilder::new);
+        local.apply(sb -> sb);
+    }
+}
@@ -0,0 +1,49 @@
+import io.github.dreamlike.CarrierWatchdog;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+public class CarrierWatchdogTest {
+
+    @Test
+    public void testCompensatesStarvedPool() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        CompletableFuture<CarrierWatchdog.StarvationEvent> event = new CompletableFuture<>();
+        CarrierWatchdog watchdog = new CarrierWatchdog(pool, Duration.ofMillis(10), Duration.ofMillis(50), 2, event::complete);
+        watchdog.start();
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            // occupy the only carrier with a task that never yields
+            pool.execute(() -> {
+                while (release.getCount() > 0) {
+                    Thread.onSpinWait();
+                }
+            });
+            CountDownLatch ranBehind = new CountDownLatch(1);
+            pool.execute(ranBehind::countDown);
+
+            CarrierWatchdog.StarvationEvent starvation = event.get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(starvation.compensated());
+            Assert.assertEquals(2, starvation.parallelism());
+            Assert.assertFalse(starvation.carriers().isEmpty());
+            // the added carrier lets the queued task run although the first one is still spinning
+            Assert.assertTrue(ranBehind.await(5, TimeUnit.SECONDS));
+
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (watchdog.compensation() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0, watchdog.compensation());
+            Assert.assertEquals(1, pool.getParallelism());
+        } finally {
+            watchdog.stop();
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import io.github.dreamlike.CpuAffinity;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class CpuAffinityTest {
+
+    @Test
+    public void testParse() {
+        Assert.assertEquals("0-3,8,10-11", CpuAffinity.parse("0-3,8,10-11").toString());
+        // agent 参数里用 ; 代替 ,
+        Assert.assertEquals(CpuAffinity.parse("0-3,8"), CpuAffinity.parse(" 0-3; 8 "));
+        Assert.assertThrows(NumberFormatException.class, () -> CpuAffinity.parse("0-x"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> CpuAffinity.parse(";"));
+    }
+
+    @Test
+    public void testApplyToOneThread() throws Exception {
+        Assume.assumeTrue(CpuAffinity.isSupported());
+        CpuAffinity before = CpuAffinity.ofCurrentThread();
+        // 取当前允许的第一个 CPU 避免 cgroup cpuset 不包含 CPU 0
+        CpuAffinity single = CpuAffinity.parse(String.valueOf(before.cpus().nextSetBit(0)));
+
+        CompletableFuture<CpuAffinity> effective = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                effective.complete(single.applyToCurrentThread("test"));
+            } catch (Throwable t) {
+                effective.completeExceptionally(t);
+            }
+        });
+        thread.start();
+        Assert.assertEquals(single, effective.get(5, TimeUnit.SECONDS));
+        thread.join();
+
+        // 只影响了那一个线程
+        Assert.assertEquals(before, CpuAffinity.ofCurrentThread());
+        Assert.assertTrue(CpuAffinity.report().stream()
+                .anyMatch(entry -> entry.role().equals("test") && entry.matches()));
+    }
+}
@@ -0,0 +1,100 @@
+import io.github.dreamlike.CarrierWatchdog;
+import io.github.dreamlike.ElasticParallelismController;
+import io.github.dreamlike.ElasticParallelismController.Policy;
+import io.github.dreamlike.ElasticParallelismController.Sample;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+public class ElasticParallelismControllerTest {
+
+    @Test
+    public void testParseCpuMax() {
+        Assert.assertEquals(-1, ElasticParallelismController.parseCpuMax("max 100000\n"), 0);
+        Assert.assertEquals(2.5, ElasticParallelismController.parseCpuMax("250000 100000\n"), 1e-9);
+        Assert.assertEquals(0.5, ElasticParallelismController.parseCpuMax("50000"), 1e-9);
+        Assert.assertTrue(ElasticParallelismController.cpuQuota() > 0);
+    }
+
+    @Test
+    public void testCutsAboveQuotaAtOnce() {
+        Policy policy = new Policy(1, 16, 4, 2, 10);
+        // quota shrank to 2 CPUs while 8 carriers are all running
+        Assert.assertEquals(2, policy.next(8, new Sample(2, 100, 8, 8)));
+        // half of the carriers blocked: the quota allows twice as many
+        Assert.assertEquals(4, policy.next(8, new Sample(2, 100, 8, 4)));
+    }
+
+    @Test
+    public void testGrowsAfterSustainedQueueing() {
+        Policy policy = new Policy(1, 16, 4, 2, 10);
+        Sample busy = new Sample(8, 100, 4, 4);
+        Assert.assertEquals(4, policy.next(4, busy));
+        Assert.assertEquals(5, policy.next(4, busy));
+        // a quiet sample resets the pressure counter
+        Assert.assertEquals(5, policy.next(5, busy));
+        Assert.assertEquals(5, policy.next(5, new Sample(8, 1, 5, 5)));
+        Assert.assertEquals(5, policy.next(5, busy));
+        Assert.assertEquals(6, policy.next(5, busy));
+        // never beyond the quota
+        Assert.assertEquals(8, policy.next(8, busy));
+        Assert.assertEquals(8, policy.next(8, busy));
+    }
+
+    @Test
+    public void testShrinksAfterSustainedIdle() {
+        Policy policy = new Policy(2, 16, 4, 2, 3);
+        Sample idle = new Sample(8, 0, 1, 1);
+        Assert.assertEquals(4, policy.next(4, idle));
+        Assert.assertEquals(4, policy.next(4, idle));
+        Assert.assertEquals(3, policy.next(4, idle));
+        Assert.assertEquals(3, policy.next(3, idle));
+        Assert.assertEquals(3, policy.next(3, idle));
+        Assert.assertEquals(2, policy.next(3, idle));
+        // never below min
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(2, policy.next(2, idle));
+        }
+    }
+
+    @Test
+    public void testKeepsWatchdogCompensation() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        CompletableFuture<CarrierWatchdog.StarvationEvent> event = new CompletableFuture<>();
+        CarrierWatchdog watchdog = new CarrierWatchdog(pool, Duration.ofMillis(10), Duration.ofMillis(50), 1, event::complete);
+        // ceiling pinned to 1: without coordination every tick would cut the compensated carrier again
+        ElasticParallelismController controller = new ElasticParallelismController(List.of(pool),
+                Duration.ofMillis(10), 1, 1, 4, 2, 10);
+        controller.coordinate(watchdog);
+        watchdog.start();
+        controller.start();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            pool.execute(() -> {
+                while (release.getCount() > 0) {
+                    Thread.onSpinWait();
+                }
+            });
+            CountDownLatch ranBehind = new CountDownLatch(1);
+            pool.execute(ranBehind::countDown);
+
+            Assert.assertTrue(event.get(5, TimeUnit.SECONDS).compensated());
+            Assert.assertTrue(ranBehind.await(5, TimeUnit.SECONDS));
+            // several controller ticks later the compensation is still there
+            Thread.sleep(100);
+            Assert.assertEquals(1, watchdog.compensation());
+            Assert.assertEquals(2, pool.getParallelism());
+        } finally {
+            release.countDown();
+            controller.stop();
+            watchdog.stop();
+            pool.shutdownNow();
+        }
+    }
+}
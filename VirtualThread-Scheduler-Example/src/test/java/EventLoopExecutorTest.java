@@ -0,0 +1,163 @@
+import io.github.dreamlike.LoomSecretHelper;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class EventLoopExecutorTest {
+
+    @Test
+    public void testPropagateToEventLoop() {
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop")) {
+            CompletableFuture<Thread> beforeSleep = new CompletableFuture<>();
+            CompletableFuture<Thread> afterSleep = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.propagateExecutor(eventLoop, () -> {
+                Thread.startVirtualThread(() -> {
+                    beforeSleep.complete(LoomSecretHelper.getCurrentCarrierThread());
+                    try {
+                        // the wakeup is fired by the event loop's own timer
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    afterSleep.complete(LoomSecretHelper.getCurrentCarrierThread());
+                });
+            });
+            Assert.assertSame(eventLoop.thread(), beforeSleep.join());
+            Assert.assertSame(eventLoop.thread(), afterSleep.join());
+        }
+    }
+
+    @Test
+    public void testMultiProducerOrderAndSchedule() throws Exception {
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop", 16)) {
+            int producers = 4;
+            int perProducer = 10_000;
+            List<List<Integer>> seen = new ArrayList<>();
+            for (int i = 0; i < producers; i++) {
+                seen.add(new ArrayList<>());
+            }
+            CountDownLatch done = new CountDownLatch(producers * perProducer);
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                List<Integer> list = seen.get(p);
+                threads.add(Thread.ofPlatform().start(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        int value = i;
+                        // only mutated on the event loop thread
+                        Assert.assertTrue(eventLoop.execute(() -> {
+                            list.add(value);
+                            done.countDown();
+                        }, null));
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (List<Integer> list : seen) {
+                for (int i = 0; i < perProducer; i++) {
+                    Assert.assertEquals(i, (int) list.get(i));
+                }
+            }
+
+            CompletableFuture<Thread> fired = new CompletableFuture<>();
+            long start = System.nanoTime();
+            eventLoop.schedule(() -> fired.complete(Thread.currentThread()), 20, TimeUnit.MILLISECONDS);
+            Assert.assertSame(eventLoop.thread(), fired.get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+            Assert.assertTrue(eventLoop.schedule(() -> {
+            }, 1, TimeUnit.HOURS).cancel(false));
+        }
+    }
+
+    @Test
+    public void testShutdownFallsBack() throws Exception {
+        EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop");
+        eventLoop.close();
+        Assert.assertTrue(eventLoop.isTerminated());
+        Assert.assertFalse(eventLoop.execute(() -> {
+        }, null));
+        Assert.assertFalse(eventLoop.supportSchedule());
+
+        CompletableFuture<Thread> carrier = new CompletableFuture<>();
+        Thread thread = CustomerVirtualThreadRuntime.newThread(eventLoop, () -> carrier.complete(LoomSecretHelper.getCurrentCarrierThread()));
+        thread.start();
+        Assert.assertNotSame(eventLoop.thread(), carrier.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCloseHandsOffPendingTimers() throws Exception {
+        EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop");
+        CompletableFuture<Thread> fired = new CompletableFuture<>();
+        Future<?> soon = eventLoop.schedule(() -> fired.complete(Thread.currentThread()), 500, TimeUnit.MILLISECONDS);
+        Future<?> later = eventLoop.schedule(() -> {
+        }, 1, TimeUnit.HOURS);
+        CountDownLatch sleeping = new CountDownLatch(1);
+        Thread sleeper = CustomerVirtualThreadRuntime.newThread(eventLoop, () -> {
+            sleeping.countDown();
+            LockSupport.parkNanos(TimeUnit.HOURS.toNanos(1));
+        });
+        sleeper.start();
+        Assert.assertTrue(sleeping.await(5, TimeUnit.SECONDS));
+
+        // an hour-long timer must not keep close() waiting
+        long start = System.nanoTime();
+        eventLoop.close();
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        Assert.assertTrue(eventLoop.isTerminated());
+
+        // timers still fire at their deadline, just not on the loop thread
+        Assert.assertNotSame(eventLoop.thread(), fired.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(soon.isDone());
+        Assert.assertTrue(later.cancel(false));
+        // the parked virtual thread is still reachable and resumes on the default scheduler
+        LockSupport.unpark(sleeper);
+        Assert.assertTrue(sleeper.join(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testLifoSlotWithFairnessCap() {
+        Assert.assertEquals(List.of("c0", "c1", "c2", "other", "c3", "c4", "c5", "c6"), lifoOrder(3));
+        // without the slot everything is FIFO
+        Assert.assertEquals(List.of("other", "c0", "c1", "c2", "c3", "c4", "c5", "c6"), lifoOrder(0));
+    }
+
+    // 在事件循环上先投递 other 再启动一条每一步唤醒下一步的任务链
+    private static List<String> lifoOrder(int lifoLimit) {
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop", EventLoopExecutor.DEFAULT_RUN_BUDGET,
+                Duration.ZERO, lifoLimit)) {
+            List<String> order = new ArrayList<>();
+            CompletableFuture<List<String>> done = new CompletableFuture<>();
+            eventLoop.execute(() -> {
+                eventLoop.execute(() -> order.add("other"), null);
+                eventLoop.execute(new Runnable() {
+                    int step;
+
+                    @Override
+                    public void run() {
+                        order.add("c" + step);
+                        if (++step < 7) {
+                            // a fresh runnable each step, a resubmission of the running task always goes to the tail
+                            Runnable self = this;
+                            eventLoop.execute(self::run, null);
+                        } else {
+                            done.complete(List.copyOf(order));
+                        }
+                    }
+                }, null);
+            }, null);
+            return done.join();
+        }
+    }
+}
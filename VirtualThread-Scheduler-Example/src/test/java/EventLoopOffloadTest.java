@@ -0,0 +1,53 @@
+import io.github.dreamlike.LoomSecretHelper;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class EventLoopOffloadTest {
+
+    @Test
+    public void testOverBudgetThreadIsOffloadedAndReturns() {
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop", EventLoopExecutor.DEFAULT_RUN_BUDGET, Duration.ofMillis(5))) {
+            CompletableFuture<List<Thread>> heavy = new CompletableFuture<>();
+            CompletableFuture<List<Thread>> light = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.newThread(eventLoop, () -> {
+                List<Thread> carriers = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    carriers.add(LoomSecretHelper.getCurrentCarrierThread());
+                    spin(TimeUnit.MILLISECONDS.toNanos(20));
+                    Thread.yield();
+                }
+                heavy.complete(carriers);
+                carriers = new ArrayList<>();
+                for (int i = 0; i < 40; i++) {
+                    Thread.yield();
+                    carriers.add(LoomSecretHelper.getCurrentCarrierThread());
+                }
+                light.complete(carriers);
+            }).start();
+
+            List<Thread> heavyCarriers = heavy.join();
+            Assert.assertSame(eventLoop.thread(), heavyCarriers.get(0));
+            // three overruns in a row move the continuation off the loop
+            Assert.assertNotSame(eventLoop.thread(), heavyCarriers.get(4));
+            Assert.assertTrue(heavyCarriers.get(4).getName().startsWith("EventLoopOffload"));
+            List<Thread> lightCarriers = light.join();
+            // back on the loop once it stays within the slice
+            Assert.assertSame(eventLoop.thread(), lightCarriers.getLast());
+        }
+    }
+
+    private static void spin(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        while (System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import io.github.dreamlike.FdAwait;
+import io.github.dreamlike.LoomSecretHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+public class FdAwaitTest {
+
+    @Test
+    public void testAwaitAnyOnVirtualThread() throws Throwable {
+        Pipe first = Pipe.open();
+        Pipe second = Pipe.open();
+        try {
+            int[] fds = {fdVal(first.source()), fdVal(second.source())};
+            CompletableFuture<Integer> timedOut = new CompletableFuture<>();
+            CompletableFuture<Integer> ready = new CompletableFuture<>();
+            Thread.startVirtualThread(() -> {
+                try {
+                    timedOut.complete(FdAwait.awaitAny(fds, FdAwait.POLLIN, Duration.ofMillis(50)));
+                    ready.complete(FdAwait.awaitAny(fds, FdAwait.POLLIN, Duration.ofSeconds(10)));
+                } catch (Throwable t) {
+                    timedOut.completeExceptionally(t);
+                    ready.completeExceptionally(t);
+                }
+            });
+            Assert.assertEquals(-1, (int) timedOut.join());
+            Thread.sleep(50);
+            second.sink().write(ByteBuffer.wrap(new byte[]{1}));
+            Assert.assertEquals(1, (int) ready.join());
+        } finally {
+            close(first);
+            close(second);
+        }
+    }
+
+    @Test
+    public void testAwaitSingleFd() throws Throwable {
+        Pipe pipe = Pipe.open();
+        try {
+            int source = fdVal(pipe.source());
+            int sink = fdVal(pipe.sink());
+            CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+            Thread.startVirtualThread(() -> {
+                try {
+                    // an empty pipe is always writable
+                    Assert.assertTrue(FdAwait.await(sink, FdAwait.POLLOUT, Duration.ZERO));
+                    Assert.assertFalse(FdAwait.await(source, FdAwait.POLLIN, Duration.ZERO));
+                    virtual.complete(FdAwait.await(source, FdAwait.POLLIN, null));
+                } catch (Throwable t) {
+                    virtual.completeExceptionally(t);
+                }
+            });
+            Thread.sleep(50);
+            pipe.sink().write(ByteBuffer.wrap(new byte[]{1}));
+            Assert.assertTrue(virtual.join());
+            // platform threads block in poll(2)
+            Assert.assertTrue(FdAwait.await(source, FdAwait.POLLIN | FdAwait.POLLOUT, Duration.ofSeconds(1)));
+        } finally {
+            close(pipe);
+        }
+    }
+
+    private static int fdVal(Object channel) throws Throwable {
+        return (int) LoomSecretHelper.LOOKUP.findVirtual(channel.getClass(), "getFDVal", MethodType.methodType(int.class))
+                .invoke(channel);
+    }
+
+    private static void close(Pipe pipe) throws Exception {
+        pipe.source().close();
+        pipe.sink().close();
+    }
+}
@@ -0,0 +1,64 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class FileIoRoutingTest {
+
+    @Test
+    public void testFileChannelRunsOnFileIoPool() throws Exception {
+        Path file = Files.createTempFile("file-io-routing", ".txt");
+        try {
+            CompletableFuture<String> content = new CompletableFuture<>();
+            Thread.startVirtualThread(() -> {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)));
+                    channel.write(ByteBuffer.wrap(" world".getBytes(StandardCharsets.UTF_8)), 5);
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+                    channel.read(buffer, 0);
+                    buffer.flip();
+                    content.complete(StandardCharsets.UTF_8.decode(buffer).toString());
+                } catch (Throwable t) {
+                    content.completeExceptionally(t);
+                }
+            }).join();
+            Assert.assertEquals("hello world", content.join());
+            // agent 参数 jdk.virtualThreadScheduler.fileIo=true 时读写由 BlockingFileIo 线程执行
+            Assert.assertTrue(Thread.getAllStackTraces().keySet().stream()
+                    .anyMatch(t -> t.getName().startsWith("VirtualThreadRuntime-FileIo-")));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testPipeIsNotRouted() throws Exception {
+        // pipe 与 FileChannel 共用 JDK 的分派器类 只改写 FileChannelImpl 时 pipe 读仍由 poller 等待 close 可以唤醒它
+        Pipe pipe = Pipe.open();
+        CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        Thread reader = Thread.startVirtualThread(() -> {
+            try {
+                pipe.source().read(ByteBuffer.allocate(16));
+                failure.complete(null);
+            } catch (Throwable t) {
+                failure.complete(t);
+            }
+        });
+        Thread.sleep(50);
+        pipe.source().close();
+        Throwable t = failure.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(String.valueOf(t), t instanceof AsynchronousCloseException || t instanceof ClosedChannelException);
+        reader.join();
+        pipe.sink().close();
+    }
+}
@@ -0,0 +1,87 @@
+import io.github.dreamlike.LoomSecretHelper;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// CompletableFuture.join 在虚拟线程上由完成者 unpark 继续运行经过上下文的 executor 不需要专门的 await
+public class JoinResumeTest {
+
+    @Test
+    public void testResumesNextOnOwningEventLoop() throws Exception {
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop")) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            AtomicReference<String> resumed = new AtomicReference<>();
+            AtomicReference<Thread> carrier = new AtomicReference<>();
+            Thread joiner = CustomerVirtualThreadRuntime.newThread(eventLoop, () -> {
+                carrier.set(LoomSecretHelper.getCurrentCarrierThread());
+                resumed.set(future.join());
+            });
+            joiner.start();
+            while (joiner.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+
+            CompletableFuture<String> seenInComplete = new CompletableFuture<>();
+            CompletableFuture<String> seenByQueuedTask = new CompletableFuture<>();
+            // a plain task on the event loop completes the future: the joiner does not run inside complete()
+            // but takes the run-next slot, ahead of the task queued behind the completing one
+            Assert.assertTrue(eventLoop.execute(() -> {
+                future.complete("done");
+                seenInComplete.complete(String.valueOf(resumed.get()));
+            }, null));
+            Assert.assertTrue(eventLoop.execute(() -> seenByQueuedTask.complete(resumed.get()), null));
+            Assert.assertEquals("null", seenInComplete.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("done", seenByQueuedTask.get(5, TimeUnit.SECONDS));
+            joiner.join();
+            Assert.assertSame(eventLoop.thread(), carrier.get());
+        }
+    }
+
+    @Test
+    public void testShutdownFallsBackToDefaultScheduler() throws Exception {
+        EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop");
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> resumed = new CompletableFuture<>();
+        Thread joiner = CustomerVirtualThreadRuntime.newThread(eventLoop, () -> {
+            try {
+                resumed.complete(future.join());
+            } catch (Throwable t) {
+                resumed.completeExceptionally(t);
+            }
+        });
+        joiner.start();
+        while (joiner.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        // the completing task is the last one the shut down loop runs: the continuation must not sneak in after it
+        Assert.assertTrue(eventLoop.execute(() -> {
+            eventLoop.shutdown();
+            future.complete("done");
+        }, null));
+        Assert.assertEquals("done", resumed.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(eventLoop.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testForeignCompletion() throws Exception {
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop")) {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            CompletableFuture<Thread> resumedOn = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.newThread(eventLoop, () -> {
+                if (future.join() == 42) {
+                    resumedOn.complete(LoomSecretHelper.getCurrentCarrierThread());
+                } else {
+                    resumedOn.completeExceptionally(new AssertionError("unexpected value"));
+                }
+            }).start();
+            Thread.sleep(20);
+            future.complete(42);
+            Assert.assertSame(eventLoop.thread(), resumedOn.get(5, TimeUnit.SECONDS));
+        }
+    }
+}
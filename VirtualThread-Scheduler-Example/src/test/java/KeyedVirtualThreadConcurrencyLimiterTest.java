@@ -0,0 +1,98 @@
+import io.github.dreamlike.KeyedVirtualThreadConcurrencyLimiter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeyedVirtualThreadConcurrencyLimiterTest {
+
+    @Test
+    public void testPerKeyLimit() throws Exception {
+        KeyedVirtualThreadConcurrencyLimiter<String> limiter = new KeyedVirtualThreadConcurrencyLimiter<>(2, Duration.ofMinutes(1));
+        AtomicInteger inFlightA = new AtomicInteger();
+        AtomicInteger maxA = new AtomicInteger();
+        AtomicInteger inFlightB = new AtomicInteger();
+        AtomicInteger maxB = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            threads.add(limiter.newThread("a", () -> track(inFlightA, maxA)));
+            threads.add(limiter.newThread("b", () -> track(inFlightB, maxB)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue("key a exceeded its limit: " + maxA.get(), maxA.get() <= 2);
+        Assert.assertTrue("key b exceeded its limit: " + maxB.get(), maxB.get() <= 2);
+        Assert.assertEquals(2, limiter.partitionCount());
+    }
+
+    @Test
+    public void testBorrowFromSharedPool() throws Exception {
+        KeyedVirtualThreadConcurrencyLimiter<String> limiter = new KeyedVirtualThreadConcurrencyLimiter<>(1, 2, 2, Duration.ofMinutes(1));
+        CountDownLatch started = new CountDownLatch(3);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            threads.add(limiter.newThread("hot", () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        // 1 reserved + 2 borrowed permits
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, limiter.sharedAvailable());
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(2, limiter.sharedAvailable());
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        KeyedVirtualThreadConcurrencyLimiter<Integer> limiter = new KeyedVirtualThreadConcurrencyLimiter<>(1, Duration.ofMillis(1));
+        for (int i = 0; i < 100; i++) {
+            limiter.run(i, () -> {
+            });
+        }
+        Assert.assertEquals(100, limiter.partitionCount());
+        Thread.sleep(10);
+        Assert.assertEquals(100, limiter.evictIdle());
+        Assert.assertEquals(0, limiter.partitionCount());
+    }
+
+    @Test
+    public void testContendedPartitionsAreEvictable() throws Exception {
+        KeyedVirtualThreadConcurrencyLimiter<Integer> limiter = new KeyedVirtualThreadConcurrencyLimiter<>(1, 1, 1, Duration.ofMillis(1));
+        List<Thread> threads = new ArrayList<>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 200; i++) {
+                threads.add(limiter.newThread(i % 4, Thread::yield));
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(1, limiter.sharedAvailable());
+        Thread.sleep(10);
+        // waiters that got a permit without being signalled must not be left behind in the queue
+        Assert.assertEquals(4, limiter.evictIdle());
+        Assert.assertEquals(0, limiter.partitionCount());
+    }
+
+    private static void track(AtomicInteger inFlight, AtomicInteger max) {
+        int current = inFlight.incrementAndGet();
+        max.accumulateAndGet(current, Math::max);
+        Thread.yield();
+        inFlight.decrementAndGet();
+    }
+}
@@ -0,0 +1,68 @@
+import io.github.dreamlike.VirtualThreadConcurrencyLimiter;
+import io.github.dreamlike.VirtualThreadRateLimiter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 只在 pom 的 no-agent execution 里运行 没有 -javaagent 时准入控制不会被 onStart 调用 限流器退化为在虚拟线程内部等待
+public class NoAgentAdmissionTest {
+
+    @Before
+    public void assertNoAgent() {
+        // the agent forces this property in premain
+        Assert.assertNull(System.getProperty("jdk.virtualThreadScheduler.implClass"));
+    }
+
+    @Test
+    public void testConcurrencyLimiterWithoutAgent() throws Exception {
+        VirtualThreadConcurrencyLimiter limiter = new VirtualThreadConcurrencyLimiter(2);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        AtomicInteger ran = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            threads.add(limiter.newThread(() -> {
+                int current = inFlight.incrementAndGet();
+                max.accumulateAndGet(current, Math::max);
+                Thread.yield();
+                inFlight.decrementAndGet();
+                ran.incrementAndGet();
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(20, ran.get());
+        Assert.assertTrue("exceeded the limit: " + max.get(), max.get() <= 2);
+        // nothing was deferred, every thread waited for its permit after starting
+        Assert.assertEquals(0, limiter.pendingStarts());
+    }
+
+    @Test
+    public void testRateLimiterWithoutAgent() throws Exception {
+        // 100/s -> one start every 10ms once the burst of 2 is used up
+        VirtualThreadRateLimiter<String> limiter = new VirtualThreadRateLimiter<>(100, 2);
+        long begin = System.nanoTime();
+        ConcurrentLinkedQueue<Long> startedAt = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(limiter.newThread("a", () -> startedAt.add(System.nanoTime() - begin)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] starts = startedAt.stream().mapToLong(Long::longValue).sorted().toArray();
+        Assert.assertEquals(8, starts.length);
+        // the threads wait for their slot inside run(), so the spacing still holds
+        for (int k = 2; k < starts.length; k++) {
+            long earliest = TimeUnit.MILLISECONDS.toNanos(10L * (k - 1) - 1);
+            Assert.assertTrue("start " + k + " after " + starts[k] + "ns", starts[k] >= earliest);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import io.github.dreamlike.LoomSecretHelper;
+import io.github.dreamlike.NumaAwareScheduler;
+import io.github.dreamlike.NumaTopology;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NumaAwareSchedulerTest {
+
+    @Test
+    public void testSpawnLocalityAndHomeNode() throws Exception {
+        NumaAwareScheduler scheduler = new NumaAwareScheduler(NumaTopology.simulated(2), Integer.MAX_VALUE);
+        Assume.assumeTrue(scheduler.topology().nodes().size() == 2);
+
+        CompletableFuture<int[]> nodes = new CompletableFuture<>();
+        start(scheduler, () -> {
+            try {
+                int parent = currentNode();
+                CompletableFuture<int[]> child = new CompletableFuture<>();
+                start(scheduler, () -> {
+                    try {
+                        int started = currentNode();
+                        Thread.sleep(10);
+                        // continuation 回到 preferredCarrier 所在的节点
+                        child.complete(new int[]{started, currentNode()});
+                    } catch (Throwable t) {
+                        child.completeExceptionally(t);
+                    }
+                });
+                int[] childNodes = child.get(5, TimeUnit.SECONDS);
+                nodes.complete(new int[]{parent, childNodes[0], childNodes[1]});
+            } catch (Throwable t) {
+                nodes.completeExceptionally(t);
+            }
+        });
+        int[] result = nodes.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(result[0], result[1]);
+        Assert.assertEquals(result[0], result[2]);
+    }
+
+    @Test
+    public void testSpillsWhenHomeNodeIsSaturated() throws Exception {
+        NumaAwareScheduler scheduler = new NumaAwareScheduler(NumaTopology.simulated(2), 0);
+        Assume.assumeTrue(scheduler.topology().nodes().size() == 2);
+
+        CompletableFuture<int[]> nodes = new CompletableFuture<>();
+        start(scheduler, () -> {
+            AtomicInteger running = new AtomicInteger();
+            AtomicBoolean stop = new AtomicBoolean();
+            try {
+                int home = currentNode();
+                int carriers = scheduler.topology().nodes().get(home).cpuCount();
+                // 自己占一个 carrier 其余 carrier 被自旋的虚拟线程占满 多出来的两个留在本地队列里
+                for (int i = 0; i < carriers + 1; i++) {
+                    start(scheduler, () -> {
+                        running.incrementAndGet();
+                        while (!stop.get()) {
+                            Thread.onSpinWait();
+                        }
+                    });
+                }
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (running.get() < carriers - 1 && System.nanoTime() < deadline) {
+                    Thread.onSpinWait();
+                }
+                CompletableFuture<Integer> probe = new CompletableFuture<>();
+                start(scheduler, () -> probe.complete(currentNode()));
+                nodes.complete(new int[]{home, probe.get(5, TimeUnit.SECONDS)});
+            } catch (Throwable t) {
+                nodes.completeExceptionally(t);
+            } finally {
+                stop.set(true);
+            }
+        });
+        int[] result = nodes.get(10, TimeUnit.SECONDS);
+        Assert.assertNotEquals(result[0], result[1]);
+    }
+
+    private static Thread start(NumaAwareScheduler scheduler, Runnable task) {
+        Thread thread = scheduler.newThread(Thread.ofVirtual(), null, task).thread();
+        thread.start();
+        return thread;
+    }
+
+    private static int currentNode() {
+        String name = LoomSecretHelper.getCurrentCarrierThread().getName();
+        // NumaCarrier-node<N>-<index>
+        return Integer.parseInt(name.substring("NumaCarrier-node".length(), name.lastIndexOf('-')));
+    }
+}
@@ -0,0 +1,56 @@
+import io.github.dreamlike.NumaTopology;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+public class NumaTopologyTest {
+
+    @Test
+    public void testReadSysfs() throws Exception {
+        Path root = Files.createTempDirectory("numa");
+        Files.createDirectories(root.resolve("node1"));
+        Files.writeString(root.resolve("node1/cpulist"), "4-7\n");
+        Files.createDirectories(root.resolve("node0"));
+        Files.writeString(root.resolve("node0/cpulist"), "0-3\n");
+        // memory-only node
+        Files.createDirectories(root.resolve("node2"));
+        Files.writeString(root.resolve("node2/cpulist"), "\n");
+        Files.createDirectories(root.resolve("power"));
+
+        NumaTopology topology = NumaTopology.read(root);
+        Assert.assertEquals(2, topology.nodes().size());
+        Assert.assertEquals(0, topology.nodes().get(0).id());
+        Assert.assertEquals("0-3", topology.nodes().get(0).cpus().toString());
+        Assert.assertEquals("4-7", topology.nodes().get(1).cpus().toString());
+        Assert.assertFalse(topology.simulated());
+    }
+
+    @Test
+    public void testNoNodeWithCpus() throws Exception {
+        Path root = Files.createTempDirectory("numa");
+        Files.createDirectories(root.resolve("node0"));
+        Files.writeString(root.resolve("node0/cpulist"), "\n");
+        Assert.assertTrue(NumaTopology.readNodes(root).isEmpty());
+        Assert.assertThrows(IllegalArgumentException.class, () -> NumaTopology.read(root));
+        // 真实机器上总能得到至少一个节点 读不到时退化为单节点
+        Assert.assertFalse(NumaTopology.detect().nodes().isEmpty());
+    }
+
+    @Test
+    public void testSimulatedCoversEveryCpuOnce() {
+        NumaTopology topology = NumaTopology.simulated(2);
+        Assert.assertTrue(topology.simulated());
+        BitSet seen = new BitSet();
+        int total = 0;
+        for (NumaTopology.Node node : topology.nodes()) {
+            Assert.assertFalse(seen.intersects(node.cpus().cpus()));
+            seen.or(node.cpus().cpus());
+            total += node.cpuCount();
+        }
+        Assert.assertEquals(seen.cardinality(), total);
+        Assert.assertEquals(Math.min(2, total), topology.nodes().size());
+    }
+}
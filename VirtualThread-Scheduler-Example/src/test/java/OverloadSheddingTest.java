@@ -0,0 +1,58 @@
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+// 默认 sojournTarget 5ms sojournInterval 100ms
+public class OverloadSheddingTest {
+
+    @Test
+    public void testShedsSheddableStartsWhileOverloaded() throws Exception {
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop")) {
+            // every queued task waits behind 30ms of blocking work, well above target for longer than the interval
+            for (int i = 0; i < 16; i++) {
+                Assert.assertTrue(eventLoop.execute(() -> sleep(30), null));
+            }
+            awaitCondition(eventLoop::overloaded);
+
+            CountDownLatch normalRan = new CountDownLatch(1);
+            CustomerVirtualThreadRuntime.propagateExecutor(eventLoop, CustomerVirtualThreadRuntime.DispatchType.DYNAMIC, true, () -> {
+                Assert.assertThrows(RejectedExecutionException.class, () -> Thread.startVirtualThread(() -> Assert.fail("shed start ran")));
+                // nested scopes stay low priority
+                CustomerVirtualThreadRuntime.propagateExecutor(eventLoop, () ->
+                        Assert.assertThrows(RejectedExecutionException.class, () -> Thread.startVirtualThread(() -> {})));
+            });
+            // normal priority starts are still queued
+            CustomerVirtualThreadRuntime.propagateExecutor(eventLoop, () -> Thread.startVirtualThread(normalRan::countDown));
+            Assert.assertTrue(normalRan.await(5, TimeUnit.SECONDS));
+
+            // once the backlog drains the low priority scope may start again
+            awaitCondition(() -> !eventLoop.overloaded());
+            CountDownLatch sheddableRan = new CountDownLatch(1);
+            CustomerVirtualThreadRuntime.propagateExecutor(eventLoop, CustomerVirtualThreadRuntime.DispatchType.DYNAMIC, true,
+                    () -> Thread.startVirtualThread(sheddableRan::countDown));
+            Assert.assertTrue(sheddableRan.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+}
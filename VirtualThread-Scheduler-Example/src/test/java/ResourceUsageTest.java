@@ -0,0 +1,72 @@
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import io.github.dreamlike.scheduler.example.ResourceUsage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// 需要 -Ddispatcher.accounting=true 只在 pom 的 accounting execution 里运行
+public class ResourceUsageTest {
+
+    private static final int ALLOCATE_BYTES = 8 * 1024 * 1024;
+
+    @Test
+    public void testAccountsPerScopeAndExecutor() throws Exception {
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop")) {
+            AtomicReference<ResourceUsage> outer = new AtomicReference<>();
+            AtomicReference<ResourceUsage> inner = new AtomicReference<>();
+            CustomerVirtualThreadRuntime.propagateExecutor(eventLoop, () -> {
+                outer.set(CustomerVirtualThreadRuntime.currentUsage());
+                CustomerVirtualThreadRuntime.propagateExecutor(eventLoop, () -> {
+                    inner.set(CustomerVirtualThreadRuntime.currentUsage());
+                    Thread worker = Thread.startVirtualThread(() -> {
+                        // the started thread bills the scope it was started in
+                        Assert.assertSame(inner.get(), CustomerVirtualThreadRuntime.currentUsage());
+                        burn();
+                    });
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+            });
+
+            Assert.assertNotNull(outer.get());
+            Assert.assertSame(outer.get(), inner.get().parent());
+            // the mount is recorded after the virtual thread has already terminated
+            awaitAllocated(inner.get());
+            awaitAllocated(outer.get());
+            awaitAllocated(eventLoop.usage());
+            Assert.assertTrue(inner.get().cpuNanos() > 0);
+            Assert.assertTrue(inner.get().mounts() >= 1);
+            Assert.assertTrue(outer.get().mounts() >= inner.get().mounts());
+        }
+        Assert.assertNull(CustomerVirtualThreadRuntime.currentUsage());
+    }
+
+    private static void burn() {
+        byte[][] chunks = new byte[ALLOCATE_BYTES / 4096][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new byte[4096];
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(5);
+        long x = chunks.length;
+        while (System.nanoTime() < deadline) {
+            x = x * 31 + 7;
+        }
+        if (x == 42) {
+            System.out.println(x);
+        }
+    }
+
+    private static void awaitAllocated(ResourceUsage usage) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (usage.allocatedBytes() < ALLOCATE_BYTES && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(usage.toString(), usage.allocatedBytes() >= ALLOCATE_BYTES);
+    }
+}
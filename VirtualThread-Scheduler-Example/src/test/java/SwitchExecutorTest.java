@@ -0,0 +1,72 @@
+import io.github.dreamlike.LoomSecretHelper;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SwitchExecutorTest {
+
+    @Test
+    public void testNestedSwitchStaysOnTarget() throws Exception {
+        try (EventLoopExecutor io = new EventLoopExecutor("IoLoop");
+             EventLoopExecutor cpuLoop = new EventLoopExecutor("CpuLoop")) {
+            AtomicInteger executes = new AtomicInteger();
+            CustomerVirtualThreadRuntime.AwareShutdownExecutor cpu = new CustomerVirtualThreadRuntime.AwareShutdownExecutor() {
+                @Override
+                public boolean execute(Runnable runnable, Thread perferredThread) {
+                    executes.incrementAndGet();
+                    return cpuLoop.execute(runnable, perferredThread);
+                }
+
+                @Override
+                public boolean owns(Thread carrier) {
+                    return cpuLoop.owns(carrier);
+                }
+            };
+            CompletableFuture<List<Object>> observed = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.newThread(io, () -> {
+                // 断言失败要落到 future 里 否则测试线程会一直等下去
+                try {
+                    List<Integer> counts = new ArrayList<>();
+                    Thread outer = CustomerVirtualThreadRuntime.switchExecutor(cpu, () -> {
+                        counts.add(executes.get());
+                        // nested switch to the executor that already owns the carrier: no hop in or out
+                        Thread inner = CustomerVirtualThreadRuntime.switchExecutor(cpu, LoomSecretHelper::getCurrentCarrierThread);
+                        counts.add(executes.get());
+                        return inner;
+                    });
+                    observed.complete(List.of(outer, LoomSecretHelper.getCurrentCarrierThread(), counts));
+                } catch (Throwable t) {
+                    observed.completeExceptionally(t);
+                }
+            }).start();
+            // exactly one execute: the hop from io onto cpu, none for the nested switch
+            Assert.assertEquals(List.of(cpuLoop.thread(), io.thread(), List.of(1, 1)), observed.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, executes.get());
+        }
+    }
+
+    @Test
+    public void testHopAndAsync() {
+        try (EventLoopExecutor io = new EventLoopExecutor("IoLoop");
+             EventLoopExecutor cpu = new EventLoopExecutor("CpuLoop")) {
+            CompletableFuture<List<Thread>> carriers = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.newThread(io, () -> {
+                CompletableFuture<Thread> async = CustomerVirtualThreadRuntime.switchExecutorAsync(cpu, LoomSecretHelper::getCurrentCarrierThread);
+                Thread caller = LoomSecretHelper.getCurrentCarrierThread();
+                CustomerVirtualThreadRuntime.AwareShutdownExecutor prev = CustomerVirtualThreadRuntime.hopTo(cpu);
+                Thread first = LoomSecretHelper.getCurrentCarrierThread();
+                Thread second = LoomSecretHelper.getCurrentCarrierThread();
+                CustomerVirtualThreadRuntime.hopTo(prev);
+                carriers.complete(List.of(async.join(), caller, first, second, LoomSecretHelper.getCurrentCarrierThread()));
+            }).start();
+            Assert.assertEquals(List.of(cpu.thread(), io.thread(), cpu.thread(), cpu.thread(), io.thread()), carriers.join());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+import timeslice.Spinner;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// 需要 agent 参数 jdk.virtualThreadScheduler.timeSlice.packages=timeslice 只在 pom 的 time-slice execution 里运行
+public class TimeSliceTest {
+
+    @Test
+    public void testSpinningThreadIsPreempted() {
+        // 不设置 executor 时间片 排除 offload 的影响 只验证 agent 插入的 yield 点
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("TimeSlice", EventLoopExecutor.DEFAULT_RUN_BUDGET, Duration.ZERO)) {
+            CompletableFuture<Void> spinner = new CompletableFuture<>();
+            CompletableFuture<Void> other = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.newThread(eventLoop, () -> {
+                Spinner.spin(TimeUnit.MILLISECONDS.toNanos(500));
+                spinner.complete(null);
+            }).start();
+            CustomerVirtualThreadRuntime.newThread(eventLoop, () -> other.complete(null)).start();
+
+            other.join();
+            // 单 carrier 上另一个虚拟线程在自旋结束之前就得到了运行
+            Assert.assertFalse(spinner.isDone());
+            spinner.join();
+        }
+    }
+
+    @Test
+    public void testSlowLoopBodyIsPreempted() {
+        // 每次循环都很慢时 poll 之间的间隔不能被误判为一次卸载
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("TimeSlice-Slow", EventLoopExecutor.DEFAULT_RUN_BUDGET, Duration.ZERO)) {
+            CompletableFuture<Void> hasher = new CompletableFuture<>();
+            CompletableFuture<Void> other = new CompletableFuture<>();
+            CustomerVirtualThreadRuntime.newThread(eventLoop, () -> {
+                Spinner.hash(TimeUnit.MILLISECONDS.toNanos(500));
+                hasher.complete(null);
+            }).start();
+            CustomerVirtualThreadRuntime.newThread(eventLoop, () -> other.complete(null)).start();
+
+            other.join();
+            Assert.assertFalse(hasher.isDone());
+            hasher.join();
+        }
+    }
+}
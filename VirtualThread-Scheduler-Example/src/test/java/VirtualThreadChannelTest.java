@@ -0,0 +1,125 @@
+import io.github.dreamlike.VirtualThreadChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class VirtualThreadChannelTest {
+
+    @Test
+    public void testBoundedTrySendAndBatches() throws Exception {
+        VirtualThreadChannel<Integer> channel = VirtualThreadChannel.bounded(2);
+        Assert.assertTrue(channel.trySend(1));
+        Assert.assertTrue(channel.trySend(2));
+        Assert.assertFalse(channel.trySend(3));
+        Assert.assertEquals(1, (int) channel.tryReceive());
+        Assert.assertTrue(channel.trySend(3));
+
+        List<Integer> received = new ArrayList<>();
+        Assert.assertEquals(2, channel.receiveAll(received, 10));
+        Assert.assertEquals(List.of(2, 3), received);
+        Assert.assertNull(channel.receive(10, TimeUnit.MILLISECONDS));
+
+        VirtualThreadChannel<Integer> unbounded = VirtualThreadChannel.unbounded();
+        unbounded.sendAll(List.of(1, 2, 3, 4, 5));
+        received.clear();
+        Assert.assertEquals(3, unbounded.receiveAll(received, 3));
+        Assert.assertEquals(List.of(1, 2, 3), received);
+
+        // closing keeps the buffered values receivable
+        unbounded.close();
+        Assert.assertThrows(IllegalStateException.class, () -> unbounded.send(6));
+        Assert.assertEquals(4, (int) unbounded.receive());
+        Assert.assertEquals(5, (int) unbounded.receive());
+        Assert.assertNull(unbounded.receive());
+    }
+
+    @Test
+    public void testRendezvousHandOff() throws Exception {
+        VirtualThreadChannel<String> channel = VirtualThreadChannel.bounded(0);
+        Assert.assertFalse(channel.trySend("nobody waits"));
+        CompletableFuture<String> received = new CompletableFuture<>();
+        Thread receiver = Thread.startVirtualThread(() -> {
+            try {
+                received.complete(channel.receive());
+            } catch (InterruptedException e) {
+                received.completeExceptionally(e);
+            }
+        });
+        // the sender waits until the receiver shows up
+        channel.send("ping");
+        Assert.assertEquals("ping", received.get(5, TimeUnit.SECONDS));
+        receiver.join();
+        Assert.assertEquals(0, channel.size());
+
+        CompletableFuture<Boolean> sent = new CompletableFuture<>();
+        Thread.startVirtualThread(() -> {
+            try {
+                sent.complete(channel.send("late", 10, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                sent.completeExceptionally(e);
+            }
+        });
+        Assert.assertFalse(sent.get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> closed = new CompletableFuture<>();
+        Thread.startVirtualThread(() -> {
+            try {
+                closed.complete(channel.receive());
+            } catch (InterruptedException e) {
+                closed.completeExceptionally(e);
+            }
+        });
+        Thread.sleep(20);
+        channel.close();
+        Assert.assertNull(closed.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testManyProducersAndConsumers() throws Exception {
+        VirtualThreadChannel<Long> channel = VirtualThreadChannel.bounded(16);
+        int producers = 4;
+        int perProducer = 20_000;
+        AtomicLong sum = new AtomicLong();
+        List<Thread> consumers = new ArrayList<>();
+        for (int c = 0; c < 4; c++) {
+            consumers.add(Thread.startVirtualThread(() -> {
+                List<Long> batch = new ArrayList<>();
+                try {
+                    while (channel.receiveAll(batch, 8) > 0) {
+                        for (long value : batch) {
+                            sum.addAndGet(value);
+                        }
+                        batch.clear();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            threads.add(Thread.startVirtualThread(() -> {
+                try {
+                    for (int i = 1; i <= perProducer; i++) {
+                        channel.send((long) i);
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        channel.close();
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        Assert.assertEquals((long) producers * perProducer * (perProducer + 1) / 2, sum.get());
+    }
+}
@@ -0,0 +1,40 @@
+import io.github.dreamlike.VirtualThreadConcurrencyLimiter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VirtualThreadConcurrencyLimiterTest {
+
+    @Test
+    public void testStartIsDeferredOverLimit() throws Exception {
+        VirtualThreadConcurrencyLimiter limiter = new VirtualThreadConcurrencyLimiter(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            threads.add(limiter.newThread(() -> {
+                max.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+            }));
+        }
+        // the agent routes onStart through admission control: everything over the limit waits unstarted
+        Assert.assertEquals(98, limiter.pendingStarts());
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(2, max.get());
+        Assert.assertEquals(0, limiter.pendingStarts());
+    }
+}
@@ -0,0 +1,81 @@
+import io.github.dreamlike.VirtualThreadParallel;
+import io.github.dreamlike.scheduler.example.CustomerVirtualThreadRuntime;
+import io.github.dreamlike.scheduler.example.EventLoopExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+public class VirtualThreadParallelTest {
+
+    private static final List<Integer> ITEMS = IntStream.range(0, 200).boxed().toList();
+
+    @Test
+    public void testMapKeepsOrderAndBoundsConcurrency() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<Integer> result = VirtualThreadParallel.map(ITEMS, 8, item -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+            inFlight.decrementAndGet();
+            return item * 2;
+        });
+        Assert.assertEquals(ITEMS.stream().map(item -> item * 2).toList(), result);
+        Assert.assertTrue(maxInFlight.get() <= 8);
+
+        List<Integer> unordered = VirtualThreadParallel.mapUnordered(ITEMS, 8, item -> item % 2 == 0 ? null : item);
+        Assert.assertEquals(ITEMS.size(), unordered.size());
+        Assert.assertEquals(new HashSet<>(ITEMS.stream().map(item -> item % 2 == 0 ? null : item).toList()), new HashSet<>(unordered));
+    }
+
+    @Test
+    public void testFailureCancelsRemainingWork() {
+        AtomicInteger processed = new AtomicInteger();
+        ExecutionException e = Assert.assertThrows(ExecutionException.class, () ->
+                VirtualThreadParallel.forEach(IntStream.range(0, 100_000).boxed().toList(), 4, item -> {
+                    if (item == 10) {
+                        throw new IllegalStateException("boom");
+                    }
+                    processed.incrementAndGet();
+                    Thread.sleep(1);
+                }));
+        Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        Assert.assertTrue(processed.get() < 1000);
+    }
+
+    @Test
+    public void testPipelineRunsOnCallerExecutor() throws Exception {
+        try (EventLoopExecutor eventLoop = new EventLoopExecutor("EventLoop")) {
+            AtomicReference<List<String>> result = new AtomicReference<>();
+            AtomicInteger offLoop = new AtomicInteger();
+            Thread caller = CustomerVirtualThreadRuntime.newThread(eventLoop, () -> {
+                try {
+                    List<String> collected = new ArrayList<>();
+                    VirtualThreadParallel.pipeline(ITEMS)
+                            .mapUnordered(4, item -> {
+                                if (EventLoopExecutor.current() != eventLoop) {
+                                    offLoop.incrementAndGet();
+                                }
+                                return item + 1;
+                            })
+                            .map(2, item -> "#" + item)
+                            .forEach(collected::add);
+                    result.set(collected);
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            caller.start();
+            caller.join();
+            Assert.assertEquals(0, offLoop.get());
+            Assert.assertEquals(new HashSet<>(ITEMS.stream().map(item -> "#" + (item + 1)).toList()), new HashSet<>(result.get()));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import io.github.dreamlike.VirtualThreadRateLimiter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class VirtualThreadRateLimiterTest {
+
+    @Test
+    public void testStartsAreSpacedAfterBurst() throws Exception {
+        // 100/s -> one start every 10ms once the burst of 5 is used up
+        VirtualThreadRateLimiter<String> limiter = new VirtualThreadRateLimiter<>(100, 5);
+        long begin = System.nanoTime();
+        ConcurrentLinkedQueue<Long> startedAt = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            threads.add(limiter.newThread("a", () -> startedAt.add(System.nanoTime() - begin)));
+        }
+        // another key has its own bucket
+        AtomicLong otherStartedAt = new AtomicLong();
+        Thread other = limiter.newThread("b", () -> otherStartedAt.set(System.nanoTime() - begin));
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        other.join();
+
+        long[] starts = startedAt.stream().mapToLong(Long::longValue).sorted().toArray();
+        Assert.assertEquals(15, starts.length);
+        // the bucket is created after begin, so token k (k >= burst) cannot be handed out before (k - burst + 1) * 10ms
+        for (int k = 5; k < starts.length; k++) {
+            long earliest = TimeUnit.MILLISECONDS.toNanos(10L * (k - 4) - 1);
+            Assert.assertTrue("start " + k + " after " + starts[k] + "ns", starts[k] >= earliest);
+        }
+        // key b does not queue behind the throttled starts of key a
+        Assert.assertTrue("b started after " + otherStartedAt.get() + "ns", otherStartedAt.get() < starts[starts.length - 1]);
+        Assert.assertEquals(2, limiter.bucketCount());
+    }
+
+    @Test
+    public void testAcquireAndTryAcquire() throws Exception {
+        VirtualThreadRateLimiter<Integer> limiter = new VirtualThreadRateLimiter<>(50, 2);
+        Assert.assertTrue(limiter.tryAcquire(1));
+        Assert.assertTrue(limiter.tryAcquire(1));
+        Assert.assertFalse(limiter.tryAcquire(1));
+
+        Thread waiter = Thread.startVirtualThread(() -> {
+            try {
+                // 5 more tokens at one per 20ms
+                for (int i = 0; i < 5; i++) {
+                    limiter.acquire(1);
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        long begin = System.nanoTime();
+        waiter.join();
+        Assert.assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(80));
+
+        Thread.sleep(100);
+        Assert.assertEquals(1, limiter.evictIdle());
+        Assert.assertEquals(0, limiter.bucketCount());
+    }
+}
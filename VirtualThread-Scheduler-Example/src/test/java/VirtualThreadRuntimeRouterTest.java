@@ -0,0 +1,144 @@
+import io.github.dreamlike.AbstractVirtualThreadRuntime;
+import io.github.dreamlike.VirtualThreadRuntime;
+import io.github.dreamlike.VirtualThreadRuntimeRouter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+public class VirtualThreadRuntimeRouterTest {
+
+    @Test
+    public void testRoutesByNameAndScopedValue() throws Exception {
+        LatencyRuntime latency = new LatencyRuntime();
+        BatchRuntime batch = new BatchRuntime();
+        VirtualThreadRuntimeRouter router = new VirtualThreadRuntimeRouter(List.of(latency, batch), "batch-:BatchRuntime");
+
+        Thread byName = router.newThread(Thread.ofVirtual().name("batch-1"), null, () -> {
+            Assert.assertSame(batch, VirtualThreadRuntimeRouter.currentRuntime());
+            sleep();
+        }).thread();
+        byName.start();
+        byName.join();
+        Assert.assertEquals(1, batch.starts.get());
+        // 同一虚拟线程的 continuation 留在被选中的 runtime
+        Assert.assertTrue(batch.continues.get() >= 1);
+        Assert.assertEquals(0, latency.starts.get());
+        Assert.assertEquals(0, latency.continues.get());
+
+        // scoped value 优先于线程名
+        Thread[] scoped = new Thread[1];
+        VirtualThreadRuntimeRouter.route(LatencyRuntime.class).run(() -> {
+            scoped[0] = router.newThread(Thread.ofVirtual().name("batch-2"), null, VirtualThreadRuntimeRouterTest::sleep).thread();
+            scoped[0].start();
+        });
+        scoped[0].join();
+        Assert.assertEquals(1, latency.starts.get());
+        Assert.assertTrue(latency.continues.get() >= 1);
+        Assert.assertEquals(1, batch.starts.get());
+
+        // 没有任何规则命中时使用第一个 runtime
+        Thread unnamed = router.newThread(Thread.ofVirtual(), null, VirtualThreadRuntimeRouterTest::sleep).thread();
+        unnamed.start();
+        unnamed.join();
+        Assert.assertEquals(2, latency.starts.get());
+        Assert.assertSame(latency, router.primary());
+    }
+
+    @Test
+    public void testStartsEveryRuntime() {
+        PrimaryRuntime primary = new PrimaryRuntime();
+        BatchRuntime batch = new BatchRuntime();
+        VirtualThreadRuntimeRouter router = new VirtualThreadRuntimeRouter(List.of(primary, batch), "");
+        router.start();
+        // JDK poller 只由主 runtime 启动 其余 runtime 只做自身的初始化
+        Assert.assertEquals(1, primary.started.get());
+        Assert.assertEquals(1, batch.started.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownRuntimeInRuleIsRejected() {
+        new VirtualThreadRuntimeRouter(List.<VirtualThreadRuntime>of(new LatencyRuntime()), "batch-:BatchRuntime");
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class CountingRuntime extends AbstractVirtualThreadRuntime {
+        final AtomicInteger starts = new AtomicInteger();
+        final AtomicInteger continues = new AtomicInteger();
+        final AtomicInteger started = new AtomicInteger();
+
+        @Override
+        protected void start0() {
+            started.incrementAndGet();
+        }
+
+        @Override
+        public void poll(int fdVal, int event, long nanos, BooleanSupplier isOpen) throws IOException {
+            jdkVirtualThreadPoller().poll(fdVal, event, nanos, isOpen);
+        }
+
+        @Override
+        public void pollSelector(int fdVal, long nanos) throws IOException {
+            jdkVirtualThreadPoller().pollSelector(fdVal, nanos);
+        }
+
+        @Override
+        public void onStart(Thread.VirtualThreadTask task) {
+            starts.incrementAndGet();
+            super.onStart(task);
+        }
+
+        @Override
+        public void onContinue(Thread.VirtualThreadTask task) {
+            continues.incrementAndGet();
+            super.onContinue(task);
+        }
+    }
+
+    private static final class LatencyRuntime extends CountingRuntime {
+    }
+
+    private static final class BatchRuntime extends CountingRuntime {
+    }
+
+    // 不启动 JDK poller 的主 runtime 测试进程里的 poller 已经由 agent 安装的 runtime 启动过
+    private static final class PrimaryRuntime implements VirtualThreadRuntime {
+        final LatencyRuntime delegate = new LatencyRuntime();
+        final AtomicInteger started = new AtomicInteger();
+
+        @Override
+        public void poll(int fdVal, int event, long nanos, BooleanSupplier isOpen) throws IOException {
+            delegate.poll(fdVal, event, nanos, isOpen);
+        }
+
+        @Override
+        public void pollSelector(int fdVal, long nanos) throws IOException {
+            delegate.pollSelector(fdVal, nanos);
+        }
+
+        @Override
+        public void start() {
+            started.incrementAndGet();
+        }
+
+        @Override
+        public void onStart(Thread.VirtualThreadTask task) {
+            delegate.onStart(task);
+        }
+
+        @Override
+        public void onContinue(Thread.VirtualThreadTask task) {
+            delegate.onContinue(task);
+        }
+    }
+}
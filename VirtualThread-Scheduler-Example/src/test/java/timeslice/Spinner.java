@@ -0,0 +1,38 @@
+package timeslice;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// 此包由 agent 参数 jdk.virtualThreadScheduler.timeSlice.packages=timeslice 插入 TimeSlice.poll()
+public final class Spinner {
+
+    private Spinner() {
+    }
+
+    public static long spin(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long iterations = 0;
+        while (System.nanoTime() < deadline) {
+            iterations++;
+        }
+        return iterations;
+    }
+
+    // 每轮在未插桩的 JDK 代码里耗时约上百微秒 两次 poll 之间的间隔远大于 quantum / CHECK_EVERY
+    public static long hash(long nanos) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        long deadline = System.nanoTime() + nanos;
+        long iterations = 0;
+        while (System.nanoTime() < deadline) {
+            buffer[0] = digest.digest(buffer)[0];
+            iterations++;
+        }
+        return iterations;
+    }
+}